@@ -0,0 +1,19 @@
+package org.a2.common;
+
+import java.rmi.RemoteException;
+
+/**
+ * This Interface lists the compact edits a user makes while dragging on whiteboard.
+ * Components are found by id, so only a few numbers are sent for each mouse movement.
+ * It is implemented by the whiteboard model itself, and on users' side by the edit coalescer
+ * that sends edits to server.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public interface BoardEditor {
+    // Move a shape or text by an offset
+    void moveObject(long id, int dx, int dy) throws RemoteException;
+
+    // Drag a control point of a shape to a new position
+    void resizeObject(long id, int handle, int x, int y) throws RemoteException;
+}
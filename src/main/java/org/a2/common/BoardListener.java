@@ -0,0 +1,22 @@
+package org.a2.common;
+
+import java.util.ArrayList;
+
+/**
+ * This Interface is implemented by anything that needs to follow the changes of a whiteboard model,
+ * e.g. a view that repaints, or the server forwarding changes to users.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public interface BoardListener {
+    // Called after changes were applied to the board, events are in the order they were applied
+    void boardChanged(ArrayList<WbEvent> events);
+
+    // Called after the whole content of the board was replaced
+    void boardReplaced();
+
+    // Called after a user's edit that changed nothing, e.g. a move of a removed shape, so the user still learns
+    // it was applied. Edits that changed something are reported by the sequence number on their events
+    default void editApplied(String origin, long seq) {
+    }
+}
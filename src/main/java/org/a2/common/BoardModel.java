@@ -0,0 +1,630 @@
+package org.a2.common;
+
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * This Class holds the content of a whiteboard, independent of any gui or network.
+ * On server it is the authoritative copy: it assigns ids and reports every change as events.
+ * On users' side it is a replica, kept up to date by applying events received from server.
+ * All changes are synchronized on the model, and listeners are informed while holding the lock,
+ * so they see changes in the exact order they were applied.
+ * Events caused by a user's edit carry the user's name and sequence number of the edit,
+ * so the user can tell which of its own edits have been applied.
+ * Every event gets the next version number, so a replica can tell whether it missed some.
+ * Shapes and strokes are also indexed by their bounds, so clicking and erasing only check components nearby.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public class BoardModel implements BoardEditor {
+
+    // Store all components within whiteboard, in drawing order
+    private CopyOnWriteArrayList<WbShape> shapeList = new CopyOnWriteArrayList<>();
+    private final StrokeStore lineList = new StrokeStore(); // strokes are many and mostly appended
+    private CopyOnWriteArrayList<WbText> textList = new CopyOnWriteArrayList<>();
+
+    // Find components by id, ids are assigned when added to whiteboard
+    private final AtomicLong nextId = new AtomicLong();
+    private final ConcurrentHashMap<Long, WbShape> shapeIndex = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, WbLine> lineIndex = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, WbText> textIndex = new ConcurrentHashMap<>();
+
+    // Find shapes and strokes by area, ids increase in drawing order
+    private final SpatialGrid shapeGrid = new SpatialGrid();
+    private final SpatialGrid lineGrid = new SpatialGrid();
+
+    // number of changes applied so far
+    private volatile long version;
+
+    // user and sequence number of the edit being applied, stamped on its events
+    private String origin;
+    private long seq;
+
+    private final CopyOnWriteArrayList<BoardListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Follow the changes of this board
+     * @param listener the listener
+     */
+    public void addListener(BoardListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return all shapes, in drawing order
+     */
+    public CopyOnWriteArrayList<WbShape> shapes() {
+        return shapeList;
+    }
+
+    /**
+     * @return all free draw strokes, in drawing order
+     */
+    public StrokeStore lines() {
+        return lineList;
+    }
+
+    /**
+     * @return all whiteboard texts, in drawing order
+     */
+    public CopyOnWriteArrayList<WbText> texts() {
+        return textList;
+    }
+
+    /**
+     * @return number of changes applied to this board so far
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Take a consistent copy of all components
+     * @return the copy, with its version
+     */
+    public synchronized WbSnapshot snapshot() {
+        return new WbSnapshot(new CopyOnWriteArrayList<>(shapeList), new CopyOnWriteArrayList<>(lineList.toList()),
+                new CopyOnWriteArrayList<>(textList), version);
+    }
+
+    /**
+     * Add a shape to whiteboard
+     * @param shape shape
+     * @return the shape, with its new id
+     */
+    public synchronized WbShape addShape(WbShape shape) {
+        shape.id = nextId.incrementAndGet();
+        shapeList.add(shape);
+        shapeIndex.put(shape.id, shape);
+        shapeGrid.put(shape.id, shape.bounds());
+        publish(WbEvent.added(WbEvent.Kind.SHAPE, shape));
+        return shape;
+    }
+
+    /**
+     * Find a shape on whiteboard by its id
+     * @param id the shape id
+     * @return the shape, null if not on whiteboard
+     */
+    public WbShape getShape(long id) {
+        return shapeIndex.get(id);
+    }
+
+    /**
+     * Find the top most shape at a position
+     * @param x x-value of position
+     * @param y y-value of position
+     * @return the shape, null if none
+     */
+    public synchronized WbShape shapeAt(int x, int y) {
+        WbShape found = null;
+        for (long id : shapeGrid.query(new Rectangle(x, y, 0, 0))) {
+            WbShape s = shapeIndex.get(id);
+            // shapes added later are drawn on top
+            if (s != null && (found == null || s.id > found.id) && s.isHit(x, y)) {
+                found = s;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Find shapes that may be drawn within an area
+     * @param area the area
+     * @return the shapes, in drawing order
+     */
+    public synchronized ArrayList<WbShape> shapesIn(Rectangle area) {
+        return near(shapeGrid, shapeIndex, area);
+    }
+
+    /**
+     * Change features of a shape on whiteboard
+     * @param id the shape id
+     * @param change the change to apply
+     * @return false if shape is not on whiteboard
+     */
+    public synchronized boolean updateShape(long id, Consumer<WbShape> change) {
+        WbShape shape = shapeIndex.get(id);
+        if (shape == null) {
+            return false;
+        }
+        change.accept(shape);
+        shapeGrid.put(id, shape.bounds());
+        publish(WbEvent.updated(WbEvent.Kind.SHAPE, shape));
+        return true;
+    }
+
+    /**
+     * Apply an edit made by a user, events of the edit are stamped with the user and sequence number.
+     * An edit without events is reported to listeners by itself, so the user always learns it was applied
+     * @param origin name of the user
+     * @param seq the user's sequence number of the edit
+     * @param change the edit
+     */
+    public synchronized void edit(String origin, long seq, Runnable change) {
+        long before = version;
+        this.origin = origin;
+        this.seq = seq;
+        try {
+            change.run();
+        } finally {
+            this.origin = null;
+            this.seq = 0;
+        }
+        if (version == before) {
+            for (BoardListener listener : listeners) {
+                listener.editApplied(origin, seq);
+            }
+        }
+    }
+
+    /**
+     * Move a shape or text by an offset
+     * @param id id of the shape or text
+     * @param dx change of x-value
+     * @param dy change of y-value
+     */
+    @Override
+    public synchronized void moveObject(long id, int dx, int dy) {
+        if (!updateShape(id, s -> s.moveBy(dx, dy))) {
+            updateText(id, t -> t.moveBy(dx, dy));
+        }
+    }
+
+    /**
+     * Drag a control point of a shape to a new position
+     * @param id the shape id
+     * @param handle index of the control point
+     * @param x new x-value of the control point
+     * @param y new y-value of the control point
+     */
+    @Override
+    public synchronized void resizeObject(long id, int handle, int x, int y) {
+        updateShape(id, s -> s.adjustShape(handle, x, y));
+    }
+
+    /**
+     * Remove a shape from whiteboard
+     * @param id the shape id
+     * @return false if shape is not on whiteboard
+     */
+    public synchronized boolean removeShape(long id) {
+        if (shapeIndex.remove(id) == null) {
+            return false;
+        }
+        shapeList.removeIf(s -> s.id == id);
+        shapeGrid.remove(id);
+        publish(WbEvent.removed(WbEvent.Kind.SHAPE, id));
+        return true;
+    }
+
+    /**
+     * Start a new free draw stroke on whiteboard
+     * @param color color of the stroke
+     * @param size size of the stroke
+     * @param x x-value of the first point
+     * @param y y-value of the first point
+     * @return id of the new stroke
+     */
+    public synchronized long beginStroke(Color color, int size, int x, int y) {
+        WbLine line = new WbLine(color, size);
+        line.append(x, y);
+        line.id = nextId.incrementAndGet();
+        lineList.add(line);
+        lineIndex.put(line.id, line);
+        lineGrid.put(line.id, line.bounds(0));
+        publish(WbEvent.added(WbEvent.Kind.LINE, line));
+        return line.id;
+    }
+
+    /**
+     * Find a free draw stroke on whiteboard by its id
+     * @param id the stroke id
+     * @return the stroke, null if not on whiteboard
+     */
+    public WbLine getLine(long id) {
+        return lineIndex.get(id);
+    }
+
+    /**
+     * Find free draw strokes that may be drawn within an area
+     * @param area the area
+     * @return the strokes, in drawing order
+     */
+    public synchronized ArrayList<WbLine> linesIn(Rectangle area) {
+        return near(lineGrid, lineIndex, area);
+    }
+
+    /**
+     * Append a batch of points to a free draw stroke, only the new points are reported
+     * @param id id of the stroke
+     * @param xs x-values of new points
+     * @param ys y-values of new points
+     */
+    public synchronized void appendStroke(long id, int[] xs, int[] ys) {
+        WbLine line = lineIndex.get(id);
+        int n = Math.min(xs.length, ys.length);
+        if (line != null && n > 0) {
+            int from = line.pointCount();
+            line.append(xs, ys, n);
+            // new points and the segment joining them to the stroke
+            lineGrid.grow(id, line.bounds(Math.max(0, from - 1)));
+            WbEvent e = WbEvent.appended(line.pointsFrom(from));
+            e.prev = from > 0 ? line.point(from - 1) : null;
+            publish(e);
+        }
+    }
+
+    /**
+     * Finish a free draw stroke, a single click without moving leaves nothing on whiteboard
+     * @param id id of the stroke
+     */
+    public synchronized void endStroke(long id) {
+        WbLine line = lineIndex.get(id);
+        if (line != null && line.pointCount() < 2) {
+            lineIndex.remove(id);
+            lineList.remove(id);
+            lineGrid.remove(id);
+            publish(WbEvent.removed(WbEvent.Kind.LINE, id));
+        }
+    }
+
+    /**
+     * Remove all free draw segments within eraser area, strokes crossing eraser are split into pieces.
+     * Only strokes whose bounds are near the eraser are checked.
+     * @param eraser A ellipse circle act as eraser
+     */
+    public synchronized void eraseStrokes(Ellipse2D eraser) {
+        ArrayList<WbEvent> events = new ArrayList<>();
+        ArrayList<WbLine> newPieces = new ArrayList<>();
+        // visit strokes in drawing order, so new pieces are added in the same order as before
+        for (WbLine l : near(lineGrid, lineIndex, eraser.getBounds())) {
+            if (!l.withinEraser(eraser)) {
+                continue;
+            }
+            boolean tailKept = false;
+            for (WbLine piece : l.erase(eraser)) {
+                if (piece.id == l.id) {
+                    // rest of the stroke keeps its place and id, so a stroke being drawn can continue
+                    tailKept = true;
+                    lineIndex.put(piece.id, piece);
+                    lineList.replace(piece);
+                    lineGrid.put(piece.id, piece.bounds(0));
+                    events.add(WbEvent.updated(WbEvent.Kind.LINE, piece));
+                } else {
+                    newPieces.add(piece);
+                }
+            }
+            if (!tailKept) {
+                lineIndex.remove(l.id);
+                lineList.remove(l.id);
+                lineGrid.remove(l.id);
+                events.add(WbEvent.removed(WbEvent.Kind.LINE, l.id));
+            }
+        }
+        // other pieces are new strokes, appended to the end like users do
+        for (WbLine piece : newPieces) {
+            piece.id = nextId.incrementAndGet();
+            lineIndex.put(piece.id, piece);
+            lineList.add(piece);
+            lineGrid.put(piece.id, piece.bounds(0));
+            events.add(WbEvent.added(WbEvent.Kind.LINE, piece));
+        }
+        if (!events.isEmpty()) {
+            publish(events);
+        }
+    }
+
+    /**
+     * Add a text object to whiteboard
+     * @param text the text
+     * @return the text, with its new id
+     */
+    public synchronized WbText addText(WbText text) {
+        text.id = nextId.incrementAndGet();
+        textList.add(text);
+        textIndex.put(text.id, text);
+        publish(WbEvent.added(WbEvent.Kind.TEXT, text));
+        return text;
+    }
+
+    /**
+     * Find a text on whiteboard by its id
+     * @param id the text id
+     * @return the text, null if not on whiteboard
+     */
+    public WbText getText(long id) {
+        return textIndex.get(id);
+    }
+
+    /**
+     * Change features of a text on whiteboard
+     * @param id the text id
+     * @param change the change to apply
+     * @return false if text is not on whiteboard
+     */
+    public synchronized boolean updateText(long id, Consumer<WbText> change) {
+        WbText text = textIndex.get(id);
+        if (text == null) {
+            return false;
+        }
+        change.accept(text);
+        publish(WbEvent.updated(WbEvent.Kind.TEXT, text));
+        return true;
+    }
+
+    /**
+     * Remove a text object from whiteboard
+     * @param id the text id
+     * @return false if text is not on whiteboard
+     */
+    public synchronized boolean removeText(long id) {
+        if (textIndex.remove(id) == null) {
+            return false;
+        }
+        textList.removeIf(t -> t.id == id);
+        publish(WbEvent.removed(WbEvent.Kind.TEXT, id));
+        return true;
+    }
+
+    /**
+     * Remove all components from whiteboard
+     */
+    public synchronized void clear() {
+        replace(new CopyOnWriteArrayList<>(), new CopyOnWriteArrayList<>(), new CopyOnWriteArrayList<>());
+    }
+
+    /**
+     * Replace all components, e.g. by a saved whiteboard. Every object gets a new id.
+     * @param shapes new shapes
+     * @param lines new free draw strokes
+     * @param texts new whiteboard texts
+     */
+    public synchronized void replace(CopyOnWriteArrayList<WbShape> shapes, CopyOnWriteArrayList<WbLine> lines,
+                                     CopyOnWriteArrayList<WbText> texts) {
+        for (WbShape s : shapes) {
+            s.id = nextId.incrementAndGet();
+        }
+        for (WbLine l : lines) {
+            l.id = nextId.incrementAndGet();
+        }
+        for (WbText t : texts) {
+            t.id = nextId.incrementAndGet();
+        }
+        setShapes(shapes);
+        setLines(lines);
+        setTexts(texts);
+        // events before cannot be replayed on the new content
+        version++;
+        for (BoardListener listener : listeners) {
+            listener.boardReplaced();
+        }
+    }
+
+    /**
+     * Replace all components by a snapshot received from server, and continue from its version
+     * @param snapshot the snapshot
+     */
+    public synchronized void load(WbSnapshot snapshot) {
+        setShapes(snapshot.shapes);
+        setLines(snapshot.lines);
+        setTexts(snapshot.texts);
+        version = snapshot.version;
+    }
+
+    /**
+     * Replace all shapes, ids are kept. The caller sets the version.
+     * @param shapes new shapes
+     */
+    private void setShapes(CopyOnWriteArrayList<WbShape> shapes) {
+        shapeIndex.clear();
+        shapeGrid.clear();
+        for (WbShape s : shapes) {
+            shapeIndex.put(s.id, s);
+            shapeGrid.put(s.id, s.bounds());
+        }
+        shapeList = shapes;
+    }
+
+    /**
+     * Replace all free draw strokes, ids are kept. The caller sets the version.
+     * @param lines new free draw strokes
+     */
+    private void setLines(CopyOnWriteArrayList<WbLine> lines) {
+        lineIndex.clear();
+        lineGrid.clear();
+        for (WbLine l : lines) {
+            lineIndex.put(l.id, l);
+            lineGrid.put(l.id, l.bounds(0));
+        }
+        lineList.reset(lines);
+    }
+
+    /**
+     * Replace all whiteboard texts, ids are kept. The caller sets the version.
+     * @param texts new whiteboard texts
+     */
+    private void setTexts(CopyOnWriteArrayList<WbText> texts) {
+        textIndex.clear();
+        for (WbText t : texts) {
+            textIndex.put(t.id, t);
+        }
+        textList = texts;
+    }
+
+    /**
+     * Apply changes received from server to this replica. Events this replica already has are skipped,
+     * and applying stops at the first missing version.
+     * @param events changes in the order server applied them
+     * @return false if some events are missing, the replica should catch up and apply the rest again
+     */
+    public synchronized boolean apply(ArrayList<WbEvent> events) {
+        ArrayList<WbEvent> applied = new ArrayList<>(events.size());
+        boolean complete = true;
+        for (WbEvent e : events) {
+            if (e.version <= version) {
+                continue;
+            }
+            if (e.version != version + 1) {
+                complete = false;
+                break;
+            }
+            switch (e.kind) {
+                case SHAPE -> {
+                    apply(shapeList, shapeIndex, e);
+                    WbShape shape = shapeIndex.get(e.id);
+                    if (shape == null) {
+                        shapeGrid.remove(e.id);
+                    } else {
+                        shapeGrid.put(e.id, shape.bounds());
+                    }
+                }
+                case LINE -> applyLine(e);
+                case TEXT -> apply(textList, textIndex, e);
+            }
+            version = e.version;
+            applied.add(e);
+        }
+        if (!applied.isEmpty()) {
+            for (BoardListener listener : listeners) {
+                listener.boardChanged(applied);
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * Apply a single change to free draw strokes
+     * @param e the change
+     */
+    private void applyLine(WbEvent e) {
+        WbLine line = (WbLine) e.object;
+        switch (e.type) {
+            case ADDED -> {
+                lineList.add(line);
+                lineIndex.put(e.id, line);
+                lineGrid.put(e.id, line.bounds(0));
+            }
+            case UPDATED -> {
+                if (!lineList.replace(line)) {
+                    lineList.add(line);
+                }
+                lineIndex.put(e.id, line);
+                lineGrid.put(e.id, line.bounds(0));
+            }
+            case APPENDED -> {
+                WbLine old = lineIndex.get(e.id);
+                if (old != null) {
+                    int from = old.pointCount();
+                    e.prev = from > 0 ? old.point(from - 1) : null;
+                    old.append(line);
+                    lineGrid.grow(e.id, old.bounds(Math.max(0, from - 1)));
+                }
+            }
+            case REMOVED -> {
+                lineIndex.remove(e.id);
+                lineList.remove(e.id);
+                lineGrid.remove(e.id);
+            }
+        }
+    }
+
+    /**
+     * Apply a single change of a shape or text to the list it belongs to
+     * @param list the list of changed object
+     * @param index id lookup of the list
+     * @param e the change
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends WbObject> void apply(CopyOnWriteArrayList<T> list, ConcurrentHashMap<Long, T> index,
+                                                   WbEvent e) {
+        switch (e.type) {
+            case ADDED -> {
+                list.add((T) e.object);
+                index.put(e.id, (T) e.object);
+            }
+            case UPDATED -> {
+                T old = index.put(e.id, (T) e.object);
+                if (old == null) {
+                    list.add((T) e.object);
+                } else {
+                    list.replaceAll(o -> o == old ? (T) e.object : o);
+                }
+            }
+            case REMOVED -> {
+                T old = index.remove(e.id);
+                list.removeIf(o -> o == old);
+            }
+        }
+    }
+
+    /**
+     * Look up the components a grid finds near an area
+     * @param grid the grid of one kind of components
+     * @param index id lookup of the same kind
+     * @param area the area
+     * @return the components, in drawing order
+     */
+    private static <T extends WbObject> ArrayList<T> near(SpatialGrid grid, ConcurrentHashMap<Long, T> index,
+                                                          Rectangle area) {
+        long[] ids = grid.query(area).stream().mapToLong(Long::longValue).sorted().toArray();
+        ArrayList<T> found = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            T o = index.get(id);
+            if (o != null) {
+                found.add(o);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Inform listeners of a single change
+     * @param event the change
+     */
+    private void publish(WbEvent event) {
+        ArrayList<WbEvent> events = new ArrayList<>();
+        events.add(event);
+        publish(events);
+    }
+
+    /**
+     * Inform listeners of changes
+     * @param events the changes in the order they were applied
+     */
+    private void publish(ArrayList<WbEvent> events) {
+        for (WbEvent e : events) {
+            e.origin = origin;
+            e.seq = seq;
+            e.version = ++version;
+        }
+        for (BoardListener listener : listeners) {
+            listener.boardChanged(events);
+        }
+    }
+}
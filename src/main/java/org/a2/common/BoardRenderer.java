@@ -0,0 +1,273 @@
+package org.a2.common;
+
+import java.awt.*;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * This Class paints the settled shapes and free draw strokes of a whiteboard from cached image tiles.
+ * Whiteboard is divided into square tiles, each drawn once into an image and reused by later paints.
+ * A change only marks the tiles its old and new bounds touch, and those are drawn again when next shown,
+ * finding their components through the model's spatial index instead of drawing everything.
+ * Live components, e.g. those a user is dragging, are left out of tiles and drawn by the view on top.
+ * Texts are always drawn by the view, their size is only known once painted.
+ * Each change also reports the area the view has to repaint, made of the old and new bounds of what changed.
+ * Changes are reported from any thread, tiles are only touched by the painting thread.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public class BoardRenderer {
+
+    static final int TILE_SIZE = 256; // width and height of a tile in pixels
+    public static final int PAD = 4; // border width and text overflow around a component's bounds
+
+    private final BoardModel board;
+
+    // images of tiles, tile key is made of its column and row. Only used by painting thread
+    private final HashMap<Long, BufferedImage> tiles = new HashMap<>();
+    private Set<Long> live = new HashSet<>(); // components left out of tiles at last paint
+
+    // areas changed since last paint, guarded by itself
+    private final ArrayList<Rectangle> dirty = new ArrayList<>();
+    private boolean allDirty;
+
+    // bounds each component was last drawn with, updated while the model is locked
+    private final HashMap<Long, Rectangle> drawn = new HashMap<>();
+
+    // constructor
+    public BoardRenderer(BoardModel board) {
+        this.board = board;
+        invalidateAll();
+    }
+
+    /**
+     * Mark the areas changed by events, called by the model's listener while the model is locked
+     * @param events the changes
+     * @return the area to repaint, null if a text of unknown size changed and the whole view must be repainted
+     */
+    public Rectangle invalidate(ArrayList<WbEvent> events) {
+        ArrayList<Rectangle> changed = new ArrayList<>(); // areas of shapes and strokes, whose tiles are stale
+        Rectangle damage = null;
+        boolean unknown = false;
+        for (WbEvent e : events) {
+            ArrayList<Rectangle> areas = new ArrayList<>(2);
+            Rectangle old = drawn.get(e.id);
+            switch (e.type) {
+                case ADDED, UPDATED -> {
+                    if (old != null) {
+                        areas.add(old);
+                    }
+                    Rectangle now = extent(e.object);
+                    if (now == null) {
+                        unknown = true;
+                        drawn.remove(e.id);
+                    } else {
+                        drawn.put(e.id, now);
+                        areas.add(now);
+                    }
+                }
+                case APPENDED -> {
+                    // new points of this event and the segment joining them to the point before,
+                    // later events of the same batch may already have extended the stroke
+                    Rectangle part = ((WbLine) e.object).bounds(0);
+                    if (e.prev != null) {
+                        part.add(e.prev);
+                    }
+                    areas.add(part);
+                    if (board.getLine(e.id) != null) {
+                        drawn.put(e.id, old == null ? part : old.union(part));
+                    }
+                }
+                case REMOVED -> {
+                    if (old != null) {
+                        areas.add(old);
+                        drawn.remove(e.id);
+                    } else if (e.kind == WbEvent.Kind.TEXT) {
+                        unknown = true;
+                    }
+                }
+            }
+            for (Rectangle r : areas) {
+                Rectangle padded = padded(r);
+                damage = damage == null ? padded : damage.union(padded);
+                if (e.kind != WbEvent.Kind.TEXT) {
+                    changed.add(padded);
+                }
+            }
+        }
+
+        synchronized (dirty) {
+            dirty.addAll(changed);
+        }
+        if (unknown) {
+            return null;
+        }
+        return damage == null ? new Rectangle() : damage;
+    }
+
+    /**
+     * Drop all tiles, called after the whole content of the model is replaced
+     */
+    public void invalidateAll() {
+        synchronized (board) {
+            drawn.clear();
+            for (WbShape s : board.shapes()) {
+                drawn.put(s.id, extent(s));
+            }
+            for (WbLine l : board.lines()) {
+                drawn.put(l.id, extent(l));
+            }
+            for (WbText t : board.texts()) {
+                Rectangle r = extent(t);
+                if (r != null) {
+                    drawn.put(t.id, r);
+                }
+            }
+        }
+        synchronized (dirty) {
+            dirty.clear();
+            allDirty = true;
+        }
+    }
+
+    /**
+     * Paint the settled components within an area from tiles, drawing stale tiles again first
+     * @param g the whiteboard graphics
+     * @param area the area to paint
+     * @param liveIds components to leave out, the view draws them itself
+     */
+    public void paint(Graphics2D g, Rectangle area, Set<Long> liveIds) {
+        ArrayList<Rectangle> changed;
+        synchronized (dirty) {
+            if (allDirty) {
+                tiles.clear();
+                allDirty = false;
+            }
+            changed = new ArrayList<>(dirty);
+            dirty.clear();
+        }
+
+        // a component that starts or stops being live moves between tiles and view
+        HashSet<Long> switched = new HashSet<>(live);
+        for (long id : liveIds) {
+            if (!switched.remove(id)) {
+                switched.add(id);
+            }
+        }
+        for (long id : switched) {
+            WbShape s = board.getShape(id);
+            WbLine l = board.getLine(id);
+            if (s != null) {
+                changed.add(padded(extent(s)));
+            } else if (l != null) {
+                changed.add(padded(extent(l)));
+            }
+        }
+        live = new HashSet<>(liveIds);
+
+        for (Rectangle r : changed) {
+            Rectangle range = range(r);
+            for (int tx = range.x; tx < range.x + range.width; tx++) {
+                for (int ty = range.y; ty < range.y + range.height; ty++) {
+                    tiles.remove(key(tx, ty));
+                }
+            }
+        }
+
+        Rectangle range = range(area);
+        for (int tx = range.x; tx < range.x + range.width; tx++) {
+            for (int ty = range.y; ty < range.y + range.height; ty++) {
+                BufferedImage tile = tiles.get(key(tx, ty));
+                if (tile == null) {
+                    tile = drawTile(g, tx, ty);
+                    tiles.put(key(tx, ty), tile);
+                }
+                g.drawImage(tile, tx * TILE_SIZE, ty * TILE_SIZE, null);
+            }
+        }
+    }
+
+    /**
+     * Draw the settled components of a tile into a new image
+     * @param g the whiteboard graphics, used for its device and font
+     * @param tx column of the tile
+     * @param ty row of the tile
+     * @return the image
+     */
+    private BufferedImage drawTile(Graphics2D g, int tx, int ty) {
+        BufferedImage tile = g.getDeviceConfiguration()
+                .createCompatibleImage(TILE_SIZE, TILE_SIZE, Transparency.TRANSLUCENT);
+        Rectangle area = new Rectangle(tx * TILE_SIZE, ty * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+        Rectangle near = padded(area);
+
+        Graphics2D tg = tile.createGraphics();
+        tg.setFont(g.getFont());
+        tg.translate(-area.x, -area.y);
+        tg.clip(area);
+        for (WbShape s : board.shapesIn(near)) {
+            if (!live.contains(s.id)) {
+                s.drawShape(tg);
+            }
+        }
+        for (WbLine l : board.linesIn(near)) {
+            if (!live.contains(l.id)) {
+                l.drawLine(tg);
+            }
+        }
+        tg.dispose();
+        return tile;
+    }
+
+    /**
+     * Find the area a component is drawn in, with control points in case it is selected
+     * @param o the component
+     * @return the area, null for a text of unknown size
+     */
+    public static Rectangle extent(WbObject o) {
+        if (o instanceof WbShape s) {
+            // control points reach at most half their size beyond the shape, one more for rounding.
+            // Line shapes are already widened further than that
+            Rectangle r = s.bounds();
+            if (!(s.shape instanceof Line2D)) {
+                r.grow(WbShape.CONTROL_SIZE / 2 + 1, WbShape.CONTROL_SIZE / 2 + 1);
+            }
+            return r;
+        } else if (o instanceof WbLine l) {
+            return l.bounds(0);
+        }
+        return ((WbText) o).bounds();
+    }
+
+    /**
+     * @return a copy of an area grown by the padding on every side
+     */
+    private static Rectangle padded(Rectangle area) {
+        Rectangle r = new Rectangle(area);
+        r.grow(PAD, PAD);
+        return r;
+    }
+
+    /**
+     * Find the columns and rows of tiles an area touches
+     * @param area the area
+     * @return the range of tiles
+     */
+    private static Rectangle range(Rectangle area) {
+        int x1 = Math.floorDiv(area.x, TILE_SIZE);
+        int y1 = Math.floorDiv(area.y, TILE_SIZE);
+        int x2 = Math.floorDiv(area.x + Math.max(area.width, 0), TILE_SIZE);
+        int y2 = Math.floorDiv(area.y + Math.max(area.height, 0), TILE_SIZE);
+        return new Rectangle(x1, y1, x2 - x1 + 1, y2 - y1 + 1);
+    }
+
+    /**
+     * @return key of the tile at a column and row
+     */
+    private static long key(int tx, int ty) {
+        return ((long) tx << 32) | (ty & 0xffffffffL);
+    }
+}
@@ -0,0 +1,25 @@
+package org.a2.common;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * This Class is a single message of whiteboard chat, numbered by server in the order messages were sent.
+ * Numbers start at 1 and have no gaps, so a user can tell when it missed some and fetch them.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public class ChatMessage implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public final long seq; // sequence number of the message
+    public final String text; // sender name and content
+
+    // constructor
+    public ChatMessage(long seq, String text) {
+        this.seq = seq;
+        this.text = text;
+    }
+}
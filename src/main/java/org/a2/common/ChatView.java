@@ -0,0 +1,105 @@
+package org.a2.common;
+
+import javax.swing.*;
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * This Class shows chat messages in a text area, in order of their sequence numbers.
+ * New messages are appended to the end instead of writing all messages again, and older pages
+ * are inserted at the start when a user asks for them. At most MAX_SHOWN messages are kept shown:
+ * a new message drops the oldest ones, an older page drops the latest ones. Dropped messages can be fetched again.
+ * Shown messages are always consecutive, a message after a gap starts the view again from it.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public class ChatView {
+
+    public static final int PAGE_SIZE = 50; // messages fetched at a time
+    public static final int MAX_SHOWN = 500; // most messages kept in text area
+
+    private final JTextArea area;
+    private final ArrayDeque<ChatMessage> shown = new ArrayDeque<>(); // messages in text area, oldest first
+
+    // constructor
+    public ChatView(JTextArea area) {
+        this.area = area;
+    }
+
+    /**
+     * @return sequence number of the oldest message shown, Long.MAX_VALUE if none
+     */
+    public synchronized long oldest() {
+        return shown.isEmpty() ? Long.MAX_VALUE : shown.getFirst().seq;
+    }
+
+    /**
+     * @return sequence number of the latest message shown, 0 if none
+     */
+    public synchronized long newest() {
+        return shown.isEmpty() ? 0 : shown.getLast().seq;
+    }
+
+    /**
+     * Show a new message at the end, a message not newer than the latest shown is ignored.
+     * If messages between the latest shown and this one are missing, shown messages are cleared first
+     * @param message the message
+     */
+    public synchronized void append(ChatMessage message) {
+        if (message.seq <= newest()) {
+            return;
+        }
+        if (!shown.isEmpty() && message.seq > newest() + 1) {
+            shown.clear();
+            area.setText("");
+        }
+        shown.addLast(message);
+        area.append(format(message));
+        if (shown.size() > MAX_SHOWN) {
+            area.replaceRange("", 0, format(shown.removeFirst()).length());
+        }
+    }
+
+    /**
+     * Show new messages at the end
+     * @param messages the messages, oldest first
+     */
+    public synchronized void appendAll(List<ChatMessage> messages) {
+        for (ChatMessage m : messages) {
+            append(m);
+        }
+    }
+
+    /**
+     * Show a page of older messages at the start, messages not older than the oldest shown are ignored.
+     * The latest messages are dropped to keep at most MAX_SHOWN, they are shown again with the next new message
+     * @param page the messages, oldest first
+     */
+    public synchronized void prepend(List<ChatMessage> page) {
+        long oldest = oldest();
+        StringBuilder text = new StringBuilder();
+        for (int i = page.size() - 1; i >= 0; i--) {
+            if (page.get(i).seq < oldest) {
+                shown.addFirst(page.get(i));
+                text.insert(0, format(page.get(i)));
+            }
+        }
+        area.insert(text.toString(), 0);
+
+        int dropped = 0;
+        while (shown.size() > MAX_SHOWN) {
+            dropped += format(shown.removeLast()).length();
+        }
+        if (dropped > 0) {
+            int end = area.getDocument().getLength();
+            area.replaceRange("", end - dropped, end);
+        }
+    }
+
+    /**
+     * @return text of a message as shown
+     */
+    private static String format(ChatMessage message) {
+        return message.text + "\n\n";
+    }
+}
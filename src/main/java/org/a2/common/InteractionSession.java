@@ -0,0 +1,138 @@
+package org.a2.common;
+
+import java.rmi.RemoteException;
+
+/**
+ * This Class holds the mouse interaction state of one user: what the user has selected,
+ * where the current drag started and which control point is being dragged.
+ * Components are found on the user's own copy of whiteboard, and each drag is turned into
+ * a compact edit sent to an editor, so only ids and offsets leave the user's side.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public class InteractionSession {
+
+    // whiteboard to find components on, and where edits are sent
+    private final BoardModel board;
+    private final BoardEditor editor;
+
+    // current selection of this user, 0 if nothing is selected
+    long shapeId;
+    long textId;
+
+    int selectedControl = -1; // control point of selected shape being dragged, -1 if none
+    int startX, startY; // mouse start position
+    boolean dragging = false;
+
+    // constructor
+    public InteractionSession(BoardModel board, BoardEditor editor) {
+        this.board = board;
+        this.editor = editor;
+    }
+
+    /**
+     * @return the shape selected by this user, null if none
+     */
+    public WbShape selectedShape() {
+        return board.getShape(shapeId);
+    }
+
+    /**
+     * @return the text selected by this user, null if none
+     */
+    public WbText selectedText() {
+        return board.getText(textId);
+    }
+
+    /**
+     * Find the top most shape at a position
+     * @param x x-value of position
+     * @param y y-value of position
+     * @return the shape, null if none
+     */
+    public WbShape shapeAt(int x, int y) {
+        return board.shapeAt(x, y);
+    }
+
+    /**
+     * Find the top most text at a position
+     * @param x x-value of position
+     * @param y y-value of position
+     * @return the text, null if none
+     */
+    public WbText textAt(int x, int y) {
+        WbText found = null;
+        for (WbText t : board.texts()) {
+            if (t.contain(x, y)) {
+                found = t;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Start a mouse interaction, select the component under mouse
+     * @param mode "shape" or "text"
+     * @param x x-value of mouse press
+     * @param y y-value of mouse press
+     */
+    public void press(String mode, int x, int y) {
+        startX = x;
+        startY = y;
+        dragging = false;
+
+        if (mode.equals("shape")) {
+            // check if any control point of selected shape is pressed
+            WbShape target = selectedShape();
+            selectedControl = target == null ? -1 : target.controlPointAt(x, y);
+            if (selectedControl >= 0) {
+                dragging = true;
+                return;
+            }
+
+            // otherwise select the shape under mouse
+            WbShape s = shapeAt(x, y);
+            shapeId = s == null ? 0 : s.id;
+            dragging = s != null;
+        } else if (mode.equals("text")) {
+            WbText t = textAt(x, y);
+            textId = t == null ? 0 : t.id;
+            dragging = t != null;
+        }
+    }
+
+    /**
+     * Continue a mouse interaction, move or resize the selected component
+     * @param mode "shape" or "text"
+     * @param x x-value of mouse drag
+     * @param y y-value of mouse drag
+     * @throws RemoteException if the editor is a server that is unreachable
+     */
+    public void drag(String mode, int x, int y) throws RemoteException {
+        if (!dragging) {
+            return;
+        }
+        int dx = x - startX;
+        int dy = y - startY;
+        startX = x;
+        startY = y;
+
+        if (mode.equals("shape")) {
+            // drag control point to resize shape, otherwise move it
+            if (selectedControl >= 0) {
+                editor.resizeObject(shapeId, selectedControl, x, y);
+            } else {
+                editor.moveObject(shapeId, dx, dy);
+            }
+        } else if (mode.equals("text")) {
+            editor.moveObject(textId, dx, dy);
+        }
+    }
+
+    /**
+     * Finish a mouse interaction, selection is kept
+     */
+    public void release() {
+        dragging = false;
+    }
+}
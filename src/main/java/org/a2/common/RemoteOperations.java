@@ -1,7 +1,6 @@
 package org.a2.common;
 
 import java.awt.*;
-import java.awt.event.MouseEvent;
 import java.awt.geom.Ellipse2D;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
@@ -24,11 +23,17 @@ public interface RemoteOperations extends Remote {
     // Get all whiteboard text from whiteboard
     CopyOnWriteArrayList<WbText> getTexts() throws RemoteException;
 
+    // Get a consistent copy of all components, with the version it was taken at
+    WbPayload<WbSnapshot> getSnapshot() throws RemoteException;
+
+    // Get all changes after a version, encoded as they were sent. Null if server no longer has them and a snapshot is needed
+    ArrayList<WbPayload<ArrayList<WbEvent>>> getEventsSince(long version) throws RemoteException;
+
     // Get current valid users' names from server
     CopyOnWriteArrayList<String> getUserList() throws RemoteException;
 
-    // Get all chat box history from server
-    CopyOnWriteArrayList<String> getChatHist() throws RemoteException;
+    // Get at most limit chat messages sent before a sequence number, oldest first. Long.MAX_VALUE gets the latest
+    ArrayList<ChatMessage> getChatPage(long before, int limit) throws RemoteException;
 
     // Add a new rectangle to whiteboard
     void addRect() throws RemoteException;
@@ -45,32 +50,35 @@ public interface RemoteOperations extends Remote {
     // Client ask for leave
     void quit(String username) throws RemoteException;
 
-    // Monitoring mouse press event at server
-    void pressMouse(String mode, MouseEvent event) throws RemoteException;
-
-    // Monitoring mouse drag event at server
-    void dragMouse(String mode, MouseEvent event) throws RemoteException;
+    // Move a shape or text of whiteboard by an offset, edits are tagged with user and its sequence number
+    void moveObject(String origin, long seq, long id, int dx, int dy) throws RemoteException;
 
-    // Monitoring mouse release event at server
-    void releaseMouse(MouseEvent event) throws RemoteException;
+    // Drag a control point of a shape to a new position
+    void resizeObject(String origin, long seq, long id, int handle, int x, int y) throws RemoteException;
 
     // Change a specified shapes border color
-    void setShapeColor(WbShape shape, Color color) throws RemoteException;
+    void setShapeColor(long shapeId, Color color) throws RemoteException;
 
     // Change a specified shapes fill color
-    void setFillColor(WbShape shape, Color color) throws RemoteException;
+    void setFillColor(long shapeId, Color color) throws RemoteException;
 
     // Change color of text within shape
-    void setTextColor(WbShape shape, Color color) throws RemoteException;
+    void setTextColor(long shapeId, Color color) throws RemoteException;
 
     // Change text within Shape
-    void setText(WbShape shape, String text) throws RemoteException;
+    void setText(long shapeId, String text) throws RemoteException;
 
     // Delete a specified shape from whiteboard
-    void deleteShape(WbShape shape) throws RemoteException;
+    void deleteShape(long shapeId) throws RemoteException;
+
+    // Start a new free draw stroke at given point, tagged with user and its sequence number, return the id of the stroke
+    long beginStroke(String origin, long seq, Color color, int size, int x, int y) throws RemoteException;
+
+    // Append a batch of points to a free draw stroke, tagged with user and its sequence number
+    void appendStroke(String origin, long seq, long strokeId, int[] xs, int[] ys) throws RemoteException;
 
-    // Add a new free draw to server
-    void addDraw(WbLine line) throws RemoteException;
+    // Finish a free draw stroke
+    void endStroke(String origin, long seq, long strokeId) throws RemoteException;
 
     // Erase free draw in selected area
     void eraseDraw(Ellipse2D eraser) throws RemoteException;
@@ -79,13 +87,13 @@ public interface RemoteOperations extends Remote {
     void addText(WbText text) throws RemoteException;
 
     // Change a specified whiteboard text's content
-    void setTextContent(WbText text, String s) throws RemoteException;
+    void setTextContent(long textId, String s) throws RemoteException;
 
     // Set a color for a whiteboard text
-    void setTextColor2(WbText text, Color color) throws RemoteException;
+    void setTextColor2(long textId, Color color) throws RemoteException;
 
     // Delete a specified whiteboard text
-    void deleteText(WbText text) throws RemoteException;
+    void deleteText(long textId) throws RemoteException;
 
     // Send a message to whiteboard communication box
     void sendMessage(String s) throws RemoteException;
@@ -0,0 +1,85 @@
+package org.a2.common;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * This Class collects the areas of a view that need repainting and repaints them at most once per frame.
+ * Areas reported from any thread within a frame are joined into one region, and only that region
+ * is repainted when the frame ends, instead of the whole view for every change.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public class RepaintScheduler {
+
+    // frames per second, can be changed by -Dwb.fps=<rate>
+    static final int FPS = Math.max(1, Integer.getInteger("wb.fps", 60));
+
+    private final JComponent view;
+    private final Timer timer;
+
+    // region to repaint at the end of current frame, guarded by this
+    private Rectangle dirty;
+    private boolean all;
+    private boolean scheduled;
+
+    // constructor
+    public RepaintScheduler(JComponent view) {
+        this.view = view;
+        this.timer = new Timer(1000 / FPS, e -> flush());
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Repaint an area at the end of current frame
+     * @param area the area, null to repaint the whole view
+     */
+    public synchronized void add(Rectangle area) {
+        if (area == null) {
+            all = true;
+        } else if (area.isEmpty()) {
+            return;
+        } else {
+            dirty = dirty == null ? new Rectangle(area) : dirty.union(area);
+        }
+        schedule();
+    }
+
+    /**
+     * Repaint the whole view at the end of current frame
+     */
+    public synchronized void addAll() {
+        all = true;
+        schedule();
+    }
+
+    /**
+     * Start current frame, if not started yet
+     */
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            timer.restart();
+        }
+    }
+
+    /**
+     * End current frame, repaint everything collected in it. Runs on the event dispatch thread.
+     */
+    private void flush() {
+        Rectangle area;
+        boolean whole;
+        synchronized (this) {
+            area = dirty;
+            whole = all;
+            dirty = null;
+            all = false;
+            scheduled = false;
+        }
+        if (whole) {
+            view.repaint();
+        } else if (area != null) {
+            view.repaint(area);
+        }
+    }
+}
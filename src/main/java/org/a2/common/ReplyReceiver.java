@@ -11,14 +11,14 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
  */
 public interface ReplyReceiver extends Remote {
-    // Update whiteboard shapes received from Server
-    void updateShape(CopyOnWriteArrayList<WbShape> shapes) throws RemoteException;
+    // Apply the latest whiteboard changes received from Server, in order, encoded once for all users
+    void applyEvents(WbPayload<ArrayList<WbEvent>> events) throws RemoteException;
 
-    // Update whiteboard free draws received from Server
-    void updateLine(CopyOnWriteArrayList<WbLine> lines) throws RemoteException;
+    // Learn that this user's edit of a sequence number was applied without changing whiteboard
+    void editApplied(long seq) throws RemoteException;
 
-    // Update whiteboard texts received from Server
-    void updateText(CopyOnWriteArrayList<WbText> texts) throws RemoteException;
+    // Replace whole whiteboard by a consistent copy received from Server, continuing from its version
+    void updateBoard(WbPayload<WbSnapshot> snapshot) throws RemoteException;
 
     // Check if username is already in use
     void duplicateName() throws RemoteException;
@@ -32,8 +32,8 @@ public interface ReplyReceiver extends Remote {
     // Receive valid user list from server
     void updateUserList(CopyOnWriteArrayList<String> userList) throws RemoteException;
 
-    // Receive the latest Chat history from Server
-    void updateChatHist(CopyOnWriteArrayList<String> messageList) throws RemoteException;
+    // Receive a new chat message from Server, messages missed before it can be fetched by its sequence number
+    void appendChat(ChatMessage message) throws RemoteException;
 
     // Close Gui if Server closed
     void serverClosed() throws RemoteException;
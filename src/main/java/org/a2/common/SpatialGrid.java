@@ -0,0 +1,148 @@
+package org.a2.common;
+
+import java.awt.*;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * This Class is a uniform grid index of whiteboard components by their bounds.
+ * Whiteboard is divided into square cells, and each component is recorded in every cell its bounds touch,
+ * so an area query only looks at components near the area instead of all of them.
+ * Components too large to record cell by cell are kept aside and returned by every query.
+ * Not thread safe, the model holding it is synchronized.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public class SpatialGrid {
+
+    static final int CELL_SIZE = 64; // width and height of a cell in pixels
+    static final int MAX_CELLS = 1024; // components covering more cells are kept aside
+
+    // ids of components in each cell, cell key is made of its column and row
+    private final HashMap<Long, HashSet<Long>> cells = new HashMap<>();
+    // cells covered by each component, as a range of columns and rows
+    private final HashMap<Long, Rectangle> ranges = new HashMap<>();
+    // components kept aside
+    private final HashSet<Long> large = new HashSet<>();
+
+    /**
+     * Record a component, replacing its previous bounds
+     * @param id id of the component
+     * @param bounds bounds of the component
+     */
+    public void put(long id, Rectangle bounds) {
+        remove(id);
+        Rectangle range = range(bounds);
+        ranges.put(id, range);
+        if ((long) range.width * range.height > MAX_CELLS) {
+            large.add(id);
+            return;
+        }
+        for (int cx = range.x; cx < range.x + range.width; cx++) {
+            for (int cy = range.y; cy < range.y + range.height; cy++) {
+                cells.computeIfAbsent(key(cx, cy), k -> new HashSet<>()).add(id);
+            }
+        }
+    }
+
+    /**
+     * Extend the bounds of a recorded component, e.g. when points are appended to a stroke.
+     * Only the cells of the added area are recorded, so it must cover everything new of the component.
+     * @param id id of the component
+     * @param more the area added to its bounds
+     */
+    public void grow(long id, Rectangle more) {
+        Rectangle range = ranges.get(id);
+        if (range == null) {
+            put(id, more);
+            return;
+        }
+        // cells within the range may not be filled, as only the parts added so far are recorded
+        Rectangle added = range(more);
+        Rectangle union = range.union(added);
+        if (large.contains(id) || (long) union.width * union.height > MAX_CELLS) {
+            remove(id);
+            ranges.put(id, union);
+            large.add(id);
+            return;
+        }
+        // only cells of the new part are visited
+        for (int cx = added.x; cx < added.x + added.width; cx++) {
+            for (int cy = added.y; cy < added.y + added.height; cy++) {
+                cells.computeIfAbsent(key(cx, cy), k -> new HashSet<>()).add(id);
+            }
+        }
+        ranges.put(id, union);
+    }
+
+    /**
+     * Forget a component
+     * @param id id of the component
+     */
+    public void remove(long id) {
+        Rectangle range = ranges.remove(id);
+        if (range == null || large.remove(id)) {
+            return;
+        }
+        for (int cx = range.x; cx < range.x + range.width; cx++) {
+            for (int cy = range.y; cy < range.y + range.height; cy++) {
+                long key = key(cx, cy);
+                HashSet<Long> ids = cells.get(key);
+                if (ids != null) {
+                    ids.remove(id);
+                    if (ids.isEmpty()) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget all components
+     */
+    public void clear() {
+        cells.clear();
+        ranges.clear();
+        large.clear();
+    }
+
+    /**
+     * Find components whose cells touch an area. Components are not checked against the area itself.
+     * @param area the area
+     * @return ids of the components
+     */
+    public HashSet<Long> query(Rectangle area) {
+        HashSet<Long> found = new HashSet<>(large);
+        Rectangle range = range(area);
+        for (int cx = range.x; cx < range.x + range.width; cx++) {
+            for (int cy = range.y; cy < range.y + range.height; cy++) {
+                HashSet<Long> ids = cells.get(key(cx, cy));
+                if (ids != null) {
+                    found.addAll(ids);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Find the columns and rows of cells an area touches
+     * @param area the area
+     * @return the range of cells
+     */
+    private static Rectangle range(Rectangle area) {
+        int x1 = Math.floorDiv(area.x, CELL_SIZE);
+        int y1 = Math.floorDiv(area.y, CELL_SIZE);
+        int x2 = Math.floorDiv(area.x + Math.max(area.width, 0), CELL_SIZE);
+        int y2 = Math.floorDiv(area.y + Math.max(area.height, 0), CELL_SIZE);
+        return new Rectangle(x1, y1, x2 - x1 + 1, y2 - y1 + 1);
+    }
+
+    /**
+     * @return key of the cell at a column and row
+     */
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+}
@@ -0,0 +1,74 @@
+package org.a2.common;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * This Class keeps the points of free draw strokes outside the Java heap, enabled by -Dwb.offHeap=true.
+ * Points are written into large direct buffers (slabs), and each stroke only holds a view of its block,
+ * so heap size and garbage collection stay the same however much is drawn.
+ * A block is never handed out twice, so readers without locking always see the points they expect.
+ * Blocks given up by removed or grown strokes are only counted, and once most of the memory is unused,
+ * the store holding the strokes copies them into a new generation of slabs. Old slabs are freed when
+ * no stroke and no reader refers to them anymore.
+ * Only used by the single writer of the store.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+final class StrokeMemory {
+
+    static final boolean ENABLED = Boolean.getBoolean("wb.offHeap");
+    static final int POINT_BYTES = 8; // x and y as int
+    static final int SLAB_SIZE = 1 << 20; // bytes of a slab
+
+    private ByteBuffer slab; // slab blocks are currently taken from
+    private long allocated; // bytes of slabs in current generation
+    private long live; // bytes of blocks in use in current generation
+
+    /**
+     * Take a block for a number of points
+     * @param points number of points
+     * @return the block, in native byte order
+     */
+    ByteBuffer allocate(int points) {
+        int bytes = points * POINT_BYTES;
+        if (bytes > SLAB_SIZE / 4) {
+            // large strokes get a buffer of their own, to keep slabs from being wasted
+            allocated += bytes;
+            live += bytes;
+            return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+        if (slab == null || slab.remaining() < bytes) {
+            slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+            allocated += SLAB_SIZE;
+        }
+        ByteBuffer block = slab.slice(slab.position(), bytes).order(ByteOrder.nativeOrder());
+        slab.position(slab.position() + bytes);
+        live += bytes;
+        return block;
+    }
+
+    /**
+     * Give up a block of current generation, its memory is freed with its slab
+     * @param block the block
+     */
+    void release(ByteBuffer block) {
+        live -= block.capacity();
+    }
+
+    /**
+     * @return true if most of the memory taken is no longer used
+     */
+    boolean wasteful() {
+        return allocated > 4L * SLAB_SIZE && live * 2 < allocated;
+    }
+
+    /**
+     * Start a new generation of slabs, the caller moves all live strokes into it
+     */
+    void startGeneration() {
+        slab = null;
+        allocated = 0;
+        live = 0;
+    }
+}
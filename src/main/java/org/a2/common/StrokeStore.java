@@ -0,0 +1,251 @@
+package org.a2.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This Class stores all free draw strokes of a whiteboard in drawing order.
+ * Strokes are appended into fixed size chunks, so adding a stroke never copies the others.
+ * A removed stroke leaves a tombstone in its slot, and the chunks are compacted once tombstones
+ * take more than half of the slots. Compaction builds new chunks and swaps them in at once, and also
+ * releases the spare capacity strokes kept for appending.
+ * With -Dwb.offHeap=true, points of stored strokes are kept in off-heap memory, see StrokeMemory.
+ * Changes are made by one writer at a time (the model holding this store is synchronized), while
+ * any number of readers iterate without locking, e.g. for painting or sending to users.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public class StrokeStore implements Iterable<WbLine> {
+
+    static final int CHUNK_SIZE = 256; // slots per chunk
+
+    /**
+     * Chunks and number of slots in use, replaced as a whole when chunks are added or compacted
+     */
+    private static final class Slots {
+        final AtomicReferenceArray<WbLine>[] chunks;
+        final int size;
+
+        Slots(AtomicReferenceArray<WbLine>[] chunks, int size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        WbLine get(int slot) {
+            return chunks[slot / CHUNK_SIZE].get(slot % CHUNK_SIZE);
+        }
+
+        void set(int slot, WbLine line) {
+            chunks[slot / CHUNK_SIZE].set(slot % CHUNK_SIZE, line);
+        }
+    }
+
+    // current slots, readers take this once and iterate it
+    private volatile Slots slots = new Slots(newChunks(0), 0);
+
+    // slot of each live stroke, only used by writer
+    private final HashMap<Long, Integer> positions = new HashMap<>();
+    private int tombstones;
+
+    // off-heap memory of stored strokes, null if strokes stay on heap
+    private final StrokeMemory memory = StrokeMemory.ENABLED ? new StrokeMemory() : null;
+
+    /**
+     * Append a stroke to the end
+     * @param line the stroke
+     */
+    public void add(WbLine line) {
+        if (memory != null) {
+            line.moveTo(memory);
+        }
+        Slots s = slots;
+        AtomicReferenceArray<WbLine>[] chunks = s.chunks;
+        if (s.size == chunks.length * CHUNK_SIZE) {
+            // only the small array of chunk references is copied
+            chunks = Arrays.copyOf(chunks, Math.max(1, chunks.length * 2));
+            for (int i = s.chunks.length; i < chunks.length; i++) {
+                chunks[i] = new AtomicReferenceArray<>(CHUNK_SIZE);
+            }
+        }
+        Slots grown = new Slots(chunks, s.size + 1);
+        grown.set(s.size, line);
+        positions.put(line.id, s.size);
+        slots = grown;
+    }
+
+    /**
+     * Put a new version of a stroke into its slot, keeping its place in drawing order
+     * @param line the new version, with the id of the stroke it replaces
+     * @return false if no stroke has this id
+     */
+    public boolean replace(WbLine line) {
+        Integer slot = positions.get(line.id);
+        if (slot == null) {
+            return false;
+        }
+        WbLine old = slots.get(slot);
+        if (memory != null && old != line) {
+            line.moveTo(memory);
+        }
+        slots.set(slot, line);
+        if (memory != null && old != line) {
+            release(old);
+        }
+        return true;
+    }
+
+    /**
+     * Remove a stroke, leaving a tombstone
+     * @param id id of the stroke
+     * @return false if no stroke has this id
+     */
+    public boolean remove(long id) {
+        Integer slot = positions.remove(id);
+        if (slot == null) {
+            return false;
+        }
+        WbLine old = slots.get(slot);
+        slots.set(slot, null);
+        if (memory != null) {
+            release(old);
+        }
+        tombstones++;
+        if (tombstones > CHUNK_SIZE && tombstones * 2 > slots.size) {
+            compact();
+        }
+        return true;
+    }
+
+    /**
+     * Replace all strokes
+     * @param lines new strokes in drawing order
+     */
+    public void reset(Iterable<WbLine> lines) {
+        ArrayList<WbLine> live = new ArrayList<>();
+        for (WbLine l : lines) {
+            live.add(l);
+        }
+        if (memory != null) {
+            // strokes of the old board keep their blocks until no longer read
+            memory.startGeneration();
+            for (WbLine l : live) {
+                l.moveTo(memory);
+            }
+        }
+        rebuild(live);
+    }
+
+    /**
+     * Copy all live strokes into a list
+     * @return the strokes in drawing order
+     */
+    public ArrayList<WbLine> toList() {
+        ArrayList<WbLine> list = new ArrayList<>();
+        for (WbLine l : this) {
+            list.add(l);
+        }
+        return list;
+    }
+
+    /**
+     * Give up the off-heap block of a stroke leaving the store, and pack the memory if mostly unused
+     * @param line the stroke
+     */
+    private void release(WbLine line) {
+        memory.release(line.block());
+        if (memory.wasteful()) {
+            Slots s = slots;
+            memory.startGeneration();
+            for (int slot = 0; slot < s.size; slot++) {
+                WbLine l = s.get(slot);
+                if (l != null) {
+                    l.moveTo(memory);
+                }
+            }
+        }
+    }
+
+    /**
+     * Move all live strokes to new chunks without tombstones
+     */
+    private void compact() {
+        ArrayList<WbLine> live = toList();
+        for (WbLine l : live) {
+            l.trim();
+        }
+        rebuild(live);
+    }
+
+    /**
+     * Build new chunks holding the given strokes, and swap them in
+     * @param live strokes in drawing order
+     */
+    private void rebuild(ArrayList<WbLine> live) {
+        Slots built = new Slots(newChunks(live.size()), live.size());
+        positions.clear();
+        for (int i = 0; i < live.size(); i++) {
+            built.set(i, live.get(i));
+            positions.put(live.get(i).id, i);
+        }
+        tombstones = 0;
+        slots = built;
+    }
+
+    /**
+     * Create enough empty chunks for a number of strokes
+     * @param capacity number of strokes
+     * @return the chunks
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static AtomicReferenceArray<WbLine>[] newChunks(int capacity) {
+        int n = Math.max(1, (capacity + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        AtomicReferenceArray<WbLine>[] chunks = new AtomicReferenceArray[n];
+        for (int i = 0; i < n; i++) {
+            chunks[i] = new AtomicReferenceArray<>(CHUNK_SIZE);
+        }
+        return chunks;
+    }
+
+    /**
+     * Iterate live strokes in drawing order without locking. Strokes appended after iteration started
+     * are not included, a stroke replaced or removed meanwhile may be seen in either state.
+     * @return the iterator
+     */
+    @Override
+    public Iterator<WbLine> iterator() {
+        Slots s = slots;
+        return new Iterator<>() {
+            int slot = 0;
+            WbLine next = advance();
+
+            private WbLine advance() {
+                while (slot < s.size) {
+                    WbLine l = s.get(slot++);
+                    if (l != null) {
+                        return l;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public WbLine next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                WbLine l = next;
+                next = advance();
+                return l;
+            }
+        };
+    }
+}
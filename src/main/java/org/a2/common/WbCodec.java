@@ -0,0 +1,149 @@
+package org.a2.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This Class holds the primitives of the compact wire format of whiteboard objects.
+ * Whole numbers are written as zigzag varints, so small and negative values take one or two bytes.
+ * Every object starts with the version of its format, and a reader rejects versions newer than it knows.
+ * Strings are written as their length and UTF-8 bytes, so they have no limit of length.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+final class WbCodec {
+
+    private WbCodec() {
+    }
+
+    /**
+     * Write the format version of an object
+     * @param out the output
+     * @param format the version
+     * @throws IOException if writing fails
+     */
+    static void writeFormat(DataOutput out, int format) throws IOException {
+        out.writeByte(format);
+    }
+
+    /**
+     * Read the format version of an object
+     * @param in the input
+     * @param latest the latest version the reader knows
+     * @param type name of the object type, for the error message
+     * @return the version
+     * @throws IOException if reading fails or the version is unknown
+     */
+    static int readFormat(DataInput in, int latest, String type) throws IOException {
+        int format = in.readUnsignedByte();
+        if (format < 1 || format > latest) {
+            throw new InvalidObjectException("Unknown " + type + " format " + format);
+        }
+        return format;
+    }
+
+    /**
+     * Write an int as zigzag varint
+     * @param out the output
+     * @param v the value
+     * @throws IOException if writing fails
+     */
+    static void writeVarInt(DataOutput out, int v) throws IOException {
+        writeVarLong(out, v);
+    }
+
+    /**
+     * Read a zigzag varint written by writeVarInt
+     * @param in the input
+     * @return the value
+     * @throws IOException if reading fails
+     */
+    static int readVarInt(DataInput in) throws IOException {
+        long v = readVarLong(in);
+        if (v != (int) v) {
+            throw new InvalidObjectException("Varint out of range " + v);
+        }
+        return (int) v;
+    }
+
+    /**
+     * Write a long as zigzag varint, 7 bits per byte, lowest bits first
+     * @param out the output
+     * @param v the value
+     * @throws IOException if writing fails
+     */
+    static void writeVarLong(DataOutput out, long v) throws IOException {
+        long zigzag = (v << 1) ^ (v >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    /**
+     * Read a zigzag varint written by writeVarLong
+     * @param in the input
+     * @return the value
+     * @throws IOException if reading fails
+     */
+    static long readVarLong(DataInput in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new InvalidObjectException("Varint too long");
+    }
+
+    /**
+     * Write a string that may be null, as varint length of its UTF-8 bytes followed by the bytes, -1 if null
+     * @param out the output
+     * @param s the string
+     * @throws IOException if writing fails
+     */
+    static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            writeVarInt(out, -1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by writeString
+     * @param in the input
+     * @return the string, may be null
+     * @throws IOException if reading fails
+     */
+    static String readString(DataInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0) {
+            throw new InvalidObjectException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read a string that may be null, written by the first formats as a flag and modified UTF-8
+     * @param in the input
+     * @return the string, may be null
+     * @throws IOException if reading fails
+     */
+    static String readFlaggedUTF(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
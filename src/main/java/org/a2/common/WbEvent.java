@@ -0,0 +1,138 @@
+package org.a2.common;
+
+import java.awt.*;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serial;
+
+/**
+ * This Class defines a single change of whiteboard content that is sent from server to users.
+ * Users apply events one by one to their local lists instead of receiving the whole board.
+ * It is sent in a compact form, with the changed object written by its own codec right after the event.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public class WbEvent implements Externalizable {
+
+    @Serial
+    private static final long serialVersionUID = 2L;
+
+    // latest version of the compact form: 2 writes the origin with its byte length
+    private static final int FORMAT = 2;
+
+    // What happened to the object
+    public enum Type { ADDED, UPDATED, APPENDED, REMOVED }
+
+    // Which list the object belongs to
+    public enum Kind { SHAPE, LINE, TEXT }
+
+    // set once, only changed when decoded
+    public Type type;
+    public Kind kind;
+    public long id; // id of the changed object
+    public WbObject object; // latest state of the object, null if removed
+
+    // version of whiteboard after this event, assigned by server one by one
+    public long version;
+
+    // user whose edit caused this event and the user's sequence number of that edit, null if not by a user
+    public String origin;
+    public long seq;
+
+    // last point of the stroke before the points of an APPENDED event, null if none.
+    // Set by the model when the event is published or applied, and not sent
+    public transient Point prev;
+
+    // constructor, an empty event to be decoded
+    public WbEvent() {
+    }
+
+    // constructor
+    private WbEvent(Type type, Kind kind, long id, WbObject object) {
+        this.type = type;
+        this.kind = kind;
+        this.id = id;
+        this.object = object;
+    }
+
+    /**
+     * An object has been appended to the end of a list
+     * @param kind the list the object belongs to
+     * @param object the new object
+     * @return the event
+     */
+    public static WbEvent added(Kind kind, WbObject object) {
+        return new WbEvent(Type.ADDED, kind, object.id, object);
+    }
+
+    /**
+     * An object has changed its features
+     * @param kind the list the object belongs to
+     * @param object the changed object
+     * @return the event
+     */
+    public static WbEvent updated(Kind kind, WbObject object) {
+        return new WbEvent(Type.UPDATED, kind, object.id, object);
+    }
+
+    /**
+     * New points have been appended to a free draw stroke
+     * @param part stroke with the same id, holding only the new points
+     * @return the event
+     */
+    public static WbEvent appended(WbLine part) {
+        return new WbEvent(Type.APPENDED, Kind.LINE, part.id, part);
+    }
+
+    /**
+     * An object has been removed from a list
+     * @param kind the list the object belongs to
+     * @param id the id of removed object
+     * @return the event
+     */
+    public static WbEvent removed(Kind kind, long id) {
+        return new WbEvent(Type.REMOVED, kind, id, null);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        WbCodec.writeFormat(out, FORMAT);
+        out.writeByte(type.ordinal());
+        out.writeByte(kind.ordinal());
+        WbCodec.writeVarLong(out, id);
+        WbCodec.writeVarLong(out, version);
+        WbCodec.writeString(out, origin);
+        WbCodec.writeVarLong(out, seq);
+        // the kind tells the type of object, so no class description is needed
+        out.writeBoolean(object != null);
+        if (object != null) {
+            object.writeExternal(out);
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        int format = WbCodec.readFormat(in, FORMAT, "event");
+        try {
+            type = Type.values()[in.readUnsignedByte()];
+            kind = Kind.values()[in.readUnsignedByte()];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new InvalidObjectException("Unknown event type or kind");
+        }
+        id = WbCodec.readVarLong(in);
+        version = WbCodec.readVarLong(in);
+        origin = format >= 2 ? WbCodec.readString(in) : WbCodec.readFlaggedUTF(in);
+        seq = WbCodec.readVarLong(in);
+        if (in.readBoolean()) {
+            object = switch (kind) {
+                case SHAPE -> new WbShape();
+                case LINE -> new WbLine();
+                case TEXT -> new WbText();
+            };
+            object.readExternal(in);
+        }
+    }
+}
@@ -2,49 +2,380 @@ package org.a2.common;
 
 import java.awt.*;
 import java.awt.geom.Ellipse2D;
-import java.awt.geom.RectangularShape;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serial;
-import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * This Class defines free draw line that can be added to whiteboard
+ * This Class defines a free draw stroke that can be added to whiteboard.
+ * A stroke is a polyline holding all points the mouse passed through while drawing.
+ * It is sent and saved in a compact form: an ARGB color, the first point, and every other point as
+ * its offset from the previous one. Mouse moves a few pixels per sample, so most points take two bytes.
+ * In memory it holds only primitives: points as two int arrays and the color as ARGB int,
+ * colors are shared between strokes when painting. A stroke without color is drawn black.
+ * A stroke kept by a model with -Dwb.offHeap=true has its points in off-heap memory instead,
+ * see StrokeMemory. It is moved there before any reader can see it, and readers take its block once.
  *
  * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
  */
-public class WbLine implements Serializable {
+public class WbLine extends WbObject {
 
     @Serial
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 3L;
 
-    // defines basic feature of a free-draw line
-    Point startPoint;
-    Point endPoint;
-    Color color;
+    // latest version of the compact form: 1 has absolute points, 2 has offsets from the previous point,
+    // 3 drops the flag before the color, which is always written
+    private static final int FORMAT = 3;
+
+    // colors used for painting, shared by all strokes of the same color
+    private static final int MAX_COLORS = 256;
+    private static final ConcurrentHashMap<Integer, Color> COLORS = new ConcurrentHashMap<>();
+
+    // arrays off-heap points are copied into for painting, one pair per painting thread
+    private static final ThreadLocal<int[][]> SCRATCH = ThreadLocal.withInitial(() -> new int[2][0]);
+
+    // defines basic feature of a free-draw stroke
+    int[] xs; // null once points are off-heap
+    int[] ys;
+    volatile ByteBuffer points; // off-heap points as x,y pairs, null while on heap
+    private StrokeMemory memory; // memory holding the points, null while on heap
+    volatile int count; // number of points in use, updated after the points are written
+    int argb; // color of the stroke
     int size;
 
+    // Constructor, an empty stroke to be decoded
+    public WbLine() {
+        this(Color.BLACK, 0);
+    }
+
+    // Constructor, an empty stroke
+    public WbLine(Color color, int size) {
+        this(new int[8], new int[8], 0, color, size);
+    }
+
     // Constructor
-    public WbLine(Point startPoint, Point endPoint, Color color, int size) {
-        this.startPoint = startPoint;
-        this.endPoint = endPoint;
-        this.color = color;
+    public WbLine(int[] xs, int[] ys, int count, Color color, int size) {
+        this.xs = xs;
+        this.ys = ys;
+        this.count = count;
+        this.argb = color == null ? Color.BLACK.getRGB() : color.getRGB();
         this.size = size;
     }
 
     /**
-     * Draw the line to whiteboard
+     * @return number of points of this stroke
+     */
+    public int pointCount() {
+        return count;
+    }
+
+    /**
+     * @param i position of the point
+     * @return the point at a position
+     */
+    public Point point(int i) {
+        ByteBuffer p = points;
+        return new Point(x(p, i), y(p, i));
+    }
+
+    /**
+     * Append points to the end of the stroke
+     * @param newXs x-values of new points
+     * @param newYs y-values of new points
+     * @param n number of new points
+     */
+    public void append(int[] newXs, int[] newYs, int n) {
+        int c = count;
+        ByteBuffer p = points;
+        if (p != null) {
+            // grow block before count changes, old block stays readable
+            if ((c + n) * StrokeMemory.POINT_BYTES > p.capacity()) {
+                ByteBuffer grown = memory.allocate(Math.max(c + n, p.capacity() / StrokeMemory.POINT_BYTES * 2));
+                grown.put(0, p, 0, c * StrokeMemory.POINT_BYTES);
+                memory.release(p);
+                p = grown;
+            }
+            for (int i = 0; i < n; i++) {
+                p.putInt((c + i) * StrokeMemory.POINT_BYTES, newXs[i]);
+                p.putInt((c + i) * StrokeMemory.POINT_BYTES + 4, newYs[i]);
+            }
+            points = p;
+            count = c + n;
+            return;
+        }
+        // grow arrays before count changes, so a painter never reads past the end
+        if (c + n > xs.length) {
+            int capacity = Math.max(c + n, xs.length * 2);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+        }
+        System.arraycopy(newXs, 0, xs, c, n);
+        System.arraycopy(newYs, 0, ys, c, n);
+        count = c + n;
+    }
+
+    /**
+     * Append a single point to the end of the stroke
+     * @param x x-value of the point
+     * @param y y-value of the point
+     */
+    public void append(int x, int y) {
+        append(new int[]{x}, new int[]{y}, 1);
+    }
+
+    /**
+     * Append all points of another stroke to the end of this stroke
+     * @param other stroke holding the new points
+     */
+    public void append(WbLine other) {
+        if (other.points == null) {
+            append(other.xs, other.ys, other.count);
+        } else {
+            WbLine part = other.copyOf(0, other.count);
+            append(part.xs, part.ys, part.count);
+        }
+    }
+
+    /**
+     * Copy points starting from a position into a new stroke with the same id and features
+     * @param from position of the first point to copy
+     * @return the stroke holding the copied points
+     */
+    public WbLine pointsFrom(int from) {
+        int c = count;
+        WbLine part = copyOf(from, c);
+        part.id = id;
+        return part;
+    }
+
+    /**
+     * Copy a range of points into a new stroke with the same features, id is not copied
+     * @param from position of the first point
+     * @param to position after the last point
+     * @return the new stroke
+     */
+    private WbLine copyOf(int from, int to) {
+        ByteBuffer p = points;
+        WbLine part;
+        if (p == null) {
+            part = new WbLine(Arrays.copyOfRange(xs, from, to), Arrays.copyOfRange(ys, from, to), to - from, null, size);
+        } else {
+            part = new WbLine(new int[Math.max(to - from, 1)], new int[Math.max(to - from, 1)], to - from, null, size);
+            for (int i = from; i < to; i++) {
+                part.xs[i - from] = x(p, i);
+                part.ys[i - from] = y(p, i);
+            }
+        }
+        part.argb = argb;
+        return part;
+    }
+
+    /**
+     * Move the points into off-heap memory, or into a new block of it if already there.
+     * Called by the single writer, before the stroke is seen by readers unless it is already off-heap.
+     * @param memory the memory
+     */
+    void moveTo(StrokeMemory memory) {
+        int c = count;
+        ByteBuffer p = points;
+        ByteBuffer block = memory.allocate(Math.max(c, 1));
+        for (int i = 0; i < c; i++) {
+            block.putInt(i * StrokeMemory.POINT_BYTES, x(p, i));
+            block.putInt(i * StrokeMemory.POINT_BYTES + 4, y(p, i));
+        }
+        this.memory = memory;
+        points = block;
+        xs = null;
+        ys = null;
+    }
+
+    /**
+     * @return the off-heap block of points, null if on heap
+     */
+    ByteBuffer block() {
+        return points;
+    }
+
+    /**
+     * @return x-value of a point, taken from a block read once by the caller
+     */
+    private int x(ByteBuffer p, int i) {
+        return p == null ? xs[i] : p.getInt(i * StrokeMemory.POINT_BYTES);
+    }
+
+    /**
+     * @return y-value of a point, taken from a block read once by the caller
+     */
+    private int y(ByteBuffer p, int i) {
+        return p == null ? ys[i] : p.getInt(i * StrokeMemory.POINT_BYTES + 4);
+    }
+
+    /**
+     * Release unused capacity of the point arrays, called by the single writer of the stroke.
+     * Off-heap points are packed when their memory starts a new generation instead.
+     */
+    void trim() {
+        int c = count;
+        if (points == null && xs.length > Math.max(c, 1)) {
+            xs = Arrays.copyOf(xs, Math.max(c, 1));
+            ys = Arrays.copyOf(ys, Math.max(c, 1));
+        }
+    }
+
+    /**
+     * @return color of the stroke, shared with other strokes of the same color
+     */
+    public Color color() {
+        Color c = COLORS.get(argb);
+        if (c == null) {
+            c = new Color(argb, true);
+            // keep the table small in case of many different colors
+            if (COLORS.size() < MAX_COLORS) {
+                COLORS.putIfAbsent(argb, c);
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Find the smallest rectangle holding points starting from a position
+     * @param from position of the first point
+     * @return the rectangle, empty if there are no such points
+     */
+    public Rectangle bounds(int from) {
+        int c = count;
+        ByteBuffer p = points;
+        if (from >= c) {
+            return new Rectangle();
+        }
+        int minX = x(p, from), maxX = minX, minY = y(p, from), maxY = minY;
+        for (int i = from + 1; i < c; i++) {
+            minX = Math.min(minX, x(p, i));
+            maxX = Math.max(maxX, x(p, i));
+            minY = Math.min(minY, y(p, i));
+            maxY = Math.max(maxY, y(p, i));
+        }
+        return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        // read count first, points are always at least this long
+        int c = count;
+        ByteBuffer p = points;
+        WbCodec.writeFormat(out, FORMAT);
+        WbCodec.writeVarLong(out, id);
+        out.writeInt(argb);
+        WbCodec.writeVarInt(out, size);
+        WbCodec.writeVarInt(out, c);
+        int px = 0, py = 0;
+        for (int i = 0; i < c; i++) {
+            int x = x(p, i), y = y(p, i);
+            WbCodec.writeVarInt(out, x - px);
+            WbCodec.writeVarInt(out, y - py);
+            px = x;
+            py = y;
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        int format = WbCodec.readFormat(in, FORMAT, "stroke");
+        id = WbCodec.readVarLong(in);
+        argb = format >= 3 || in.readBoolean() ? in.readInt() : Color.BLACK.getRGB();
+        size = WbCodec.readVarInt(in);
+        int c = WbCodec.readVarInt(in);
+        xs = new int[Math.max(c, 1)];
+        ys = new int[Math.max(c, 1)];
+        int px = 0, py = 0;
+        for (int i = 0; i < c; i++) {
+            xs[i] = WbCodec.readVarInt(in);
+            ys[i] = WbCodec.readVarInt(in);
+            if (format >= 2) {
+                xs[i] += px;
+                ys[i] += py;
+            }
+            px = xs[i];
+            py = ys[i];
+        }
+        count = c;
+    }
+
+    /**
+     * Draw the stroke to whiteboard
      * @param g the graphics
      */
     public void drawLine(Graphics2D g){
-        g.setColor(color);
-        g.drawLine(startPoint.x, startPoint.y, endPoint.x, endPoint.y);
+        // read count first, points are always at least this long
+        int c = count;
+        ByteBuffer p = points;
+        int[] xs = this.xs, ys = this.ys;
+        if (p != null) {
+            // copy off-heap points into arrays reused by this painting thread
+            int[][] scratch = SCRATCH.get();
+            if (scratch[0].length < c) {
+                scratch[0] = new int[c];
+                scratch[1] = new int[c];
+            }
+            xs = scratch[0];
+            ys = scratch[1];
+            for (int i = 0; i < c; i++) {
+                xs[i] = x(p, i);
+                ys[i] = y(p, i);
+            }
+        }
+        g.setColor(color());
+        if (c == 1) {
+            g.drawLine(xs[0], ys[0], xs[0], ys[0]);
+        } else {
+            g.drawPolyline(xs, ys, c);
+        }
     }
 
     /**
-     * Check if any lines within a specified eraser area.
+     * Check if any points of the stroke are within a specified eraser area.
      * @param eraser A ellipse circle act as eraser
      * @return true if within, false not in
      */
     public boolean withinEraser(Ellipse2D eraser){
-        return eraser.contains(startPoint.x, startPoint.y) || eraser.contains(endPoint.x, endPoint.y);
+        int c = count;
+        ByteBuffer p = points;
+        for (int i = 0; i < c; i++) {
+            if (eraser.contains(x(p, i), y(p, i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove every segment that has an end within eraser area, which may split the stroke.
+     * The piece ending at the last point keeps the id of this stroke, so drawing can continue on it,
+     * other pieces have id 0.
+     * @param eraser A ellipse circle act as eraser
+     * @return the remaining pieces in drawing order
+     */
+    public ArrayList<WbLine> erase(Ellipse2D eraser){
+        ArrayList<WbLine> pieces = new ArrayList<>();
+        int c = count;
+        ByteBuffer p = points;
+        int start = 0;
+        for (int i = 0; i <= c; i++) {
+            if (i == c || eraser.contains(x(p, i), y(p, i))) {
+                // points between start and i are all outside eraser
+                if (i - start >= 2) {
+                    WbLine piece = copyOf(start, i);
+                    piece.id = i == c ? id : 0;
+                    pieces.add(piece);
+                }
+                start = i + 1;
+            }
+        }
+        return pieces;
     }
 }
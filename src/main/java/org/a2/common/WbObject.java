@@ -0,0 +1,31 @@
+package org.a2.common;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serial;
+
+/**
+ * This Class is the base of every object on whiteboard.
+ * Each object carries an id assigned by server, so it can be referred to without sending the object itself.
+ * Every type writes its own compact form, including the id, so no class layout is sent along with it.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public abstract class WbObject implements Externalizable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    // unique id assigned by server, 0 if not on whiteboard yet
+    public long id;
+
+    // write this object in its compact form
+    @Override
+    public abstract void writeExternal(ObjectOutput out) throws IOException;
+
+    // read this object from its compact form, into an object made by the no-arg constructor
+    @Override
+    public abstract void readExternal(ObjectInput in) throws IOException;
+}
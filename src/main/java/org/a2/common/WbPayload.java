@@ -0,0 +1,57 @@
+package org.a2.common;
+
+import java.io.*;
+import java.rmi.UnmarshalException;
+
+/**
+ * This Class carries whiteboard content that server encodes to bytes once, together with its version.
+ * The same payload is handed to every user, so RMI only copies its bytes for each of them instead of
+ * serializing the whole content again per user. Users decode it back on their side.
+ *
+ * @param <T> type of the content
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public final class WbPayload<T extends Serializable> implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public final long version; // version of whiteboard the content belongs to
+    private final byte[] bytes;
+
+    // constructor
+    private WbPayload(long version, byte[] bytes) {
+        this.version = version;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Encode content to bytes
+     * @param content the content, every part of it must be serializable
+     * @param version version of whiteboard the content belongs to
+     * @return the payload
+     */
+    public static <T extends Serializable> WbPayload<T> encode(T content, long version) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot encode whiteboard content", e);
+        }
+        return new WbPayload<>(version, out.toByteArray());
+    }
+
+    /**
+     * Decode the content, each call gives a new copy
+     * @return the content
+     * @throws UnmarshalException if the bytes are not valid content
+     */
+    @SuppressWarnings("unchecked")
+    public T decode() throws UnmarshalException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (T) ois.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new UnmarshalException("Cannot decode whiteboard content", e);
+        }
+    }
+}
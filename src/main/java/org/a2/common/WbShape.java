@@ -4,21 +4,37 @@ import java.awt.*;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Line2D;
 import java.awt.geom.RectangularShape;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serial;
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Objects;
 
 /**
  * This Class defines all the shapes that can be added to whiteboard
  * Shapes include rectangle, circle, oval, and line
+ * It is sent in a compact form: a type tag, whole pixel coordinates and ARGB colors.
+ * Selection and control points belong to each view, control points are derived from the shape when needed.
+ * Moving and resizing change the geometry in place, so a copy gets geometry of its own.
  *
  * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
  */
-public class WbShape implements Serializable {
+public class WbShape extends WbObject {
 
     @Serial
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
+
+    // latest version of the compact form, and tags of shape types in it. 2 writes the text with its byte length
+    private static final int FORMAT = 2;
+    private static final int RECT = 0, ELLIPSE = 1, LINE = 2;
+
+    // bits telling which optional features are sent
+    private static final int HAS_TEXT = 1, HAS_SHAPE_COLOR = 2, HAS_TEXT_COLOR = 4, HAS_FILL_COLOR = 8;
+
+    // width and height of a control point, centred on the corner or middle of an edge it adjusts
+    public static final int CONTROL_SIZE = 8;
 
     // Define basic features of a whiteboard shape
     public Shape shape;
@@ -26,28 +42,40 @@ public class WbShape implements Serializable {
     public Color shapeColor; // shape border color
     public Color textColor;
     public Color fillColor; // shape fill color
-    public Boolean selected = false; // check if shape is selected by user
-    public ArrayList<Shape> controlPoints; // assign control points to shape
-    public int selectedControl = -1; // check if any control point of shape is selected
 
     // constructor
     public WbShape(Shape shape) {
         this.shape = shape;
         this.shapeColor = Color.black;
         this.textColor = Color.BLACK;
-        this.setControlPoint();
+    }
+
+    // constructor, an empty shape to be decoded
+    public WbShape() {
     }
 
     // constructor
     public WbShape(WbShape s) {
-        this.shape = s.shape;
+        this.id = s.id;
+        this.shape = copyOf(s.shape);
         this.text = s.text;
         this.shapeColor = s.shapeColor;
         this.textColor = s.textColor;
         this.fillColor = s.fillColor;
-        this.selected = s.selected;
-        this.controlPoints = s.controlPoints;
-        this.selectedControl = s.selectedControl;
+    }
+
+    /**
+     * Copy a geometry, so changing one in place leaves the other as it was
+     * @param shape the geometry
+     * @return the copy
+     */
+    private static Shape copyOf(Shape shape) {
+        if (shape instanceof RectangularShape rect) {
+            return (Shape) rect.clone();
+        } else if (shape instanceof Line2D line) {
+            return (Shape) line.clone();
+        }
+        return shape;
     }
 
     /**
@@ -83,25 +111,72 @@ public class WbShape implements Serializable {
             }
             g.drawLine((int) line.getX1(), (int) line.getY1(), (int) line.getX2(), (int) line.getY2());
         }
+    }
+
+    /**
+     * Present all control points of the shape, used by a view to show its own selection
+     * @param g the whiteboard graphics
+     */
+    public void drawControlPoints(Graphics2D g) {
+        g.setColor(Color.blue);
+        for (Shape s : controlPoints()) {
+            g.fill(s);
+        }
+    }
+
+    /**
+     * Check if a mouse click position is on this shape
+     * @param x X-position of mouse click event
+     * @param y Y-position of mouse click event
+     * @return true if on the shape
+     */
+    public boolean isHit(int x, int y) {
+        if (shape instanceof RectangularShape) {
+            return shape.contains(x, y);
+        } else if (shape instanceof Line2D line) {
+            return isClickNearLine(line, x, y);
+        }
+        return false;
+    }
 
-        // if shape is selected, present all control points
-        if (selected) {
-            for (Shape s : controlPoints) {
-                g.setColor(Color.blue);
-                g.fill(s);
+    /**
+     * Find the area in which a mouse click may hit this shape
+     * @return the area, line shapes are widened by the distance a click may be away from them
+     */
+    public Rectangle bounds() {
+        Rectangle bounds = shape.getBounds();
+        if (shape instanceof Line2D) {
+            bounds.grow(10, 10);
+        }
+        return bounds;
+    }
+
+    /**
+     * Find the control point at a mouse click position
+     * @param x X-position of mouse click event
+     * @param y Y-position of mouse click event
+     * @return index of the control point, -1 if none
+     */
+    public int controlPointAt(int x, int y) {
+        ArrayList<Rectangle> controlPoints = controlPoints();
+        for (int i = 0; i < controlPoints.size(); i++) {
+            if (controlPoints.get(i).contains(x, y)) {
+                return i;
             }
         }
+        return -1;
     }
 
     /**
-     * This method assign control points to shape according to its type
+     * This method find the control points of shape according to its type and position
+     * @return the control points, in the order used by adjustShape
      */
-    private void setControlPoint() {
-        this.controlPoints = new ArrayList<>();
+    public ArrayList<Rectangle> controlPoints() {
+        ArrayList<Rectangle> controlPoints = new ArrayList<>();
 
         // rectangular shape has 8 control points
         if (shape instanceof RectangularShape) {
-            int size = 8;
+            int size = CONTROL_SIZE;
             int x = (int) (((RectangularShape) shape).getX() - size / 2);
             int y = (int) (((RectangularShape) shape).getY() - size / 2);
             int w = (int) (((RectangularShape) shape).getWidth());
@@ -121,7 +196,7 @@ public class WbShape implements Serializable {
 
         // Line shape has two control points
         } else if (shape instanceof Line2D line) {
-            int size = 8;
+            int size = CONTROL_SIZE;
             int x1 = (int) (line.getX1() - size / 2);
             int y1 = (int) (line.getY1() - size / 2);
             int x2 = (int) (line.getX2() - size / 2);
@@ -131,6 +206,7 @@ public class WbShape implements Serializable {
             controlPoints.add(new Rectangle(x1, y1, size, size));
             controlPoints.add(new Rectangle(x2, y2, size, size));
         }
+        return controlPoints;
     }
 
     /**
@@ -139,36 +215,25 @@ public class WbShape implements Serializable {
      * @param y new Y position
      */
     public void moveBy(int x, int y){
-        // update rectangular shape
-        if (shape instanceof RectangularShape){
-            int newX = (int) (((RectangularShape) shape).getX() + x);
-            int newY = (int) (((RectangularShape) shape).getY() + y);
-            if (shape instanceof Rectangle){
-                shape = new Rectangle(newX,newY,((Rectangle) shape).width, ((Rectangle) shape).height);
-            } else if (shape instanceof Ellipse2D) {
-                shape = new Ellipse2D.Double(newX,newY,((Ellipse2D) shape).getWidth(), ((Ellipse2D) shape).getHeight());
-            }
-            // reset control points as position changed
-            this.setControlPoint();
+        // update rectangular shape in place
+        if (shape instanceof RectangularShape rect){
+            int newX = (int) (rect.getX() + x);
+            int newY = (int) (rect.getY() + y);
+            rect.setFrame(newX, newY, rect.getWidth(), rect.getHeight());
 
-        // update Line shape
+        // update Line shape in place
         } else if (shape instanceof Line2D line) {
-            double newX1 = line.getX1() + x;
-            double newY1 = line.getY1() + y;
-            double newX2 = line.getX2() + x;
-            double newY2 = line.getY2() + y;
-            shape = new Line2D.Double(newX1, newY1, newX2, newY2);
-            // reset control points as position changed
-            this.setControlPoint();
+            line.setLine(line.getX1() + x, line.getY1() + y, line.getX2() + x, line.getY2() + y);
         }
     }
 
     /**
      * This method change the size of selected shape
+     * @param selectedControl index of the control point being dragged
      * @param x End x-position of selected control point
      * @param y End y-position of selected control point
      */
-    public void adjustShape(int x, int y) {
+    public void adjustShape(int selectedControl, int x, int y) {
         // Logic to update rectangular shape
         if (shape instanceof RectangularShape rect){
             int newX = (int) rect.getX();
@@ -214,12 +279,8 @@ public class WbShape implements Serializable {
                     break;
             }
 
-            // creat new shape to determined location with determined size
-            if (shape instanceof Rectangle) {
-                shape = new Rectangle(newX, newY, newWidth, newHeight);
-            } else if (shape instanceof Ellipse2D) {
-                shape = new Ellipse2D.Double(newX, newY, newWidth, newHeight);
-            }
+            // move shape to determined location with determined size, in place
+            rect.setFrame(newX, newY, newWidth, newHeight);
 
         // Logic to update line shape
         }else if (shape instanceof Line2D line) {
@@ -238,12 +299,9 @@ public class WbShape implements Serializable {
                     newY2 = y;
                     break;
             }
-            // creat new line with new specified features
-            shape = new Line2D.Double(newX1, newY1, newX2, newY2);
+            // update line in place with new specified features
+            line.setLine(newX1, newY1, newX2, newY2);
         }
-
-        // update control points of shape as position changed
-        setControlPoint();
     }
 
     /**
@@ -261,6 +319,72 @@ public class WbShape implements Serializable {
         return distance <= 10;
     }
 
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        WbCodec.writeFormat(out, FORMAT);
+        WbCodec.writeVarLong(out, id);
+        int flags = (text != null ? HAS_TEXT : 0) | (shapeColor != null ? HAS_SHAPE_COLOR : 0)
+                | (textColor != null ? HAS_TEXT_COLOR : 0) | (fillColor != null ? HAS_FILL_COLOR : 0);
+        out.writeByte(flags);
+
+        // shapes are always placed on whole pixels
+        if (shape instanceof Line2D line) {
+            out.writeByte(LINE);
+            WbCodec.writeVarInt(out, (int) Math.round(line.getX1()));
+            WbCodec.writeVarInt(out, (int) Math.round(line.getY1()));
+            WbCodec.writeVarInt(out, (int) Math.round(line.getX2()));
+            WbCodec.writeVarInt(out, (int) Math.round(line.getY2()));
+        } else {
+            RectangularShape rect = (RectangularShape) shape;
+            out.writeByte(shape instanceof Ellipse2D ? ELLIPSE : RECT);
+            WbCodec.writeVarInt(out, (int) Math.round(rect.getX()));
+            WbCodec.writeVarInt(out, (int) Math.round(rect.getY()));
+            WbCodec.writeVarInt(out, (int) Math.round(rect.getWidth()));
+            WbCodec.writeVarInt(out, (int) Math.round(rect.getHeight()));
+        }
+
+        if (text != null) {
+            WbCodec.writeString(out, text);
+        }
+        if (shapeColor != null) {
+            out.writeInt(shapeColor.getRGB());
+        }
+        if (textColor != null) {
+            out.writeInt(textColor.getRGB());
+        }
+        if (fillColor != null) {
+            out.writeInt(fillColor.getRGB());
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        int format = WbCodec.readFormat(in, FORMAT, "shape");
+        id = WbCodec.readVarLong(in);
+        int flags = in.readUnsignedByte();
+
+        int type = in.readUnsignedByte();
+        int a = WbCodec.readVarInt(in);
+        int b = WbCodec.readVarInt(in);
+        int c = WbCodec.readVarInt(in);
+        int d = WbCodec.readVarInt(in);
+        shape = switch (type) {
+            case RECT -> new Rectangle(a, b, c, d);
+            case ELLIPSE -> new Ellipse2D.Double(a, b, c, d);
+            case LINE -> new Line2D.Double(a, b, c, d);
+            default -> throw new InvalidObjectException("Unknown shape type " + type);
+        };
+
+        if ((flags & HAS_TEXT) == 0) {
+            text = null;
+        } else {
+            text = format >= 2 ? WbCodec.readString(in) : in.readUTF();
+        }
+        shapeColor = (flags & HAS_SHAPE_COLOR) != 0 ? new Color(in.readInt(), true) : null;
+        textColor = (flags & HAS_TEXT_COLOR) != 0 ? new Color(in.readInt(), true) : null;
+        fillColor = (flags & HAS_FILL_COLOR) != 0 ? new Color(in.readInt(), true) : null;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -277,9 +401,7 @@ public class WbShape implements Serializable {
         if (!Objects.equals(text, wbShape.text)) return false;
         if (!Objects.equals(shapeColor, wbShape.shapeColor)) return false;
         if (!Objects.equals(textColor, wbShape.textColor)) return false;
-        if (!Objects.equals(fillColor, wbShape.fillColor)) return false;
-
-        return controlPoints.equals(wbShape.controlPoints);
+        return Objects.equals(fillColor, wbShape.fillColor);
     }
 
     @Override
@@ -289,8 +411,6 @@ public class WbShape implements Serializable {
         result = 31 * result + (shapeColor != null ? shapeColor.hashCode() : 0);
         result = 31 * result + (textColor != null ? textColor.hashCode() : 0);
         result = 31 * result + (fillColor != null ? fillColor.hashCode() : 0);
-        result = 31 * result + controlPoints.hashCode();
-        result = 31 * result + selectedControl;
         return result;
     }
 }
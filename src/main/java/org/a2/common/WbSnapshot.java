@@ -0,0 +1,96 @@
+package org.a2.common;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * This Class is a consistent copy of all whiteboard components, together with the version it was taken at.
+ * A user loading it can continue with the events that follow this version.
+ * It is sent in a compact form: each list as its size followed by its components, written by their own codecs.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public class WbSnapshot implements Externalizable {
+
+    @Serial
+    private static final long serialVersionUID = 2L;
+
+    // latest version of the compact form
+    private static final int FORMAT = 1;
+
+    // set once, only changed when decoded
+    public CopyOnWriteArrayList<WbShape> shapes;
+    public CopyOnWriteArrayList<WbLine> lines;
+    public CopyOnWriteArrayList<WbText> texts;
+    public long version; // version of whiteboard when the copy was taken
+
+    // constructor, an empty copy to be decoded
+    public WbSnapshot() {
+    }
+
+    // constructor
+    public WbSnapshot(CopyOnWriteArrayList<WbShape> shapes, CopyOnWriteArrayList<WbLine> lines,
+                      CopyOnWriteArrayList<WbText> texts, long version) {
+        this.shapes = shapes;
+        this.lines = lines;
+        this.texts = texts;
+        this.version = version;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        WbCodec.writeFormat(out, FORMAT);
+        WbCodec.writeVarLong(out, version);
+        writeList(out, shapes);
+        writeList(out, lines);
+        writeList(out, texts);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        WbCodec.readFormat(in, FORMAT, "snapshot");
+        version = WbCodec.readVarLong(in);
+        shapes = readList(in, WbShape::new);
+        lines = readList(in, WbLine::new);
+        texts = readList(in, WbText::new);
+    }
+
+    /**
+     * Write the size of a list and then its components
+     * @param out the output
+     * @param list the list
+     * @throws IOException if writing fails
+     */
+    private static void writeList(ObjectOutput out, List<? extends WbObject> list) throws IOException {
+        WbCodec.writeVarInt(out, list.size());
+        for (WbObject o : list) {
+            o.writeExternal(out);
+        }
+    }
+
+    /**
+     * Read a list written by writeList
+     * @param in the input
+     * @param empty creates an empty component to decode into
+     * @return the list
+     * @throws IOException if reading fails
+     */
+    private static <T extends WbObject> CopyOnWriteArrayList<T> readList(ObjectInput in, Supplier<T> empty)
+            throws IOException {
+        int n = WbCodec.readVarInt(in);
+        ArrayList<T> list = new ArrayList<>(Math.max(n, 0));
+        for (int i = 0; i < n; i++) {
+            T o = empty.get();
+            o.readExternal(in);
+            list.add(o);
+        }
+        return new CopyOnWriteArrayList<>(list);
+    }
+}
@@ -1,19 +1,25 @@
 package org.a2.common;
 
 import java.awt.*;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serial;
-import java.io.Serializable;
 import java.util.Objects;
 
 /**
  * This Class defines a text object that can be added to whiteboard
+ * It is sent in a compact form of varint positions and an ARGB color.
  *
  * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
  */
-public class WbText implements Serializable {
+public class WbText extends WbObject {
 
     @Serial
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
+
+    // latest version of the compact form: 2 writes the text with its byte length
+    private static final int FORMAT = 2;
 
     // Defines the features of a whiteboard text
     public String text;
@@ -31,6 +37,21 @@ public class WbText implements Serializable {
         this.color = color;
     }
 
+    // constructor, an empty text to be decoded
+    public WbText() {
+    }
+
+    // constructor, a copy of another text
+    public WbText(WbText t) {
+        this.id = t.id;
+        this.text = t.text;
+        this.x = t.x;
+        this.y = t.y;
+        this.color = t.color;
+        this.textWidth = t.textWidth;
+        this.textHeight = t.textHeight;
+    }
+
     /**
      * Draw the text to whiteboard
      * @param g the graphics of whiteboard
@@ -46,6 +67,18 @@ public class WbText implements Serializable {
         g.drawString(text, dx, dy);
     }
 
+    /**
+     * Find the area the text may be drawn in, wide enough for a text changed since it was last drawn
+     * @return the area, null if the text has never been drawn and its size is unknown
+     */
+    public Rectangle bounds() {
+        if (textHeight == 0) {
+            return null;
+        }
+        int w = Math.max(textWidth, text.length() * textHeight);
+        return new Rectangle(x - w / 2, y - textHeight / 2, w, textHeight);
+    }
+
     /**
      * This method check whether a mouse click position is on the text.
      * @param x X-position of mouse event
@@ -67,6 +100,33 @@ public class WbText implements Serializable {
         y = y + dy;
     }
 
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        WbCodec.writeFormat(out, FORMAT);
+        WbCodec.writeVarLong(out, id);
+        WbCodec.writeString(out, text);
+        WbCodec.writeVarInt(out, x);
+        WbCodec.writeVarInt(out, y);
+        out.writeBoolean(color != null);
+        if (color != null) {
+            out.writeInt(color.getRGB());
+        }
+        WbCodec.writeVarInt(out, textWidth);
+        WbCodec.writeVarInt(out, textHeight);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        int format = WbCodec.readFormat(in, FORMAT, "text");
+        id = WbCodec.readVarLong(in);
+        text = format >= 2 ? WbCodec.readString(in) : WbCodec.readFlaggedUTF(in);
+        x = WbCodec.readVarInt(in);
+        y = WbCodec.readVarInt(in);
+        color = in.readBoolean() ? new Color(in.readInt(), true) : null;
+        textWidth = WbCodec.readVarInt(in);
+        textHeight = WbCodec.readVarInt(in);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
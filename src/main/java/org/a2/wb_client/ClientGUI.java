@@ -1,5 +1,7 @@
 package org.a2.wb_client;
 
+import org.a2.common.ChatMessage;
+import org.a2.common.ChatView;
 import org.a2.common.RemoteOperations;
 
 import javax.swing.*;
@@ -7,6 +9,7 @@ import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
@@ -30,8 +33,10 @@ public class ClientGUI extends JFrame {
     // Peer interact Panel
     public JTextArea jtaUserList;
     public JTextArea jtaChatHist;
+    public JButton btnEarlier;
     public JTextField jtfMessage;
     public JButton btnSend;
+    ChatView chatView;
 
     // Constructor
     public ClientGUI(RemoteOperations wbService, ClientWB clientWB) throws RemoteException {
@@ -39,9 +44,8 @@ public class ClientGUI extends JFrame {
         this.wbService = wbService;
 
         // Initialize whiteboard content
-        clientWB.shapeList = wbService.getShapes();
-        clientWB.lineList = wbService.getDraws();
-        clientWB.textList = wbService.getTexts();
+        clientWB.board.load(wbService.getSnapshot().decode());
+        clientWB.renderer.invalidateAll();
 
         setTitle("Whiteboard System: " + JoinWhiteboard.username + " (User)"); // title of the window
         setSize(800, 650); // window size
@@ -72,7 +76,7 @@ public class ClientGUI extends JFrame {
         // initialize gui contents
         JPanel mainPanel = mainPanel();
         updateUserList(wbService.getUserList());
-        updateChatHist(wbService.getChatHist());
+        chatView.prepend(wbService.getChatPage(Long.MAX_VALUE, ChatView.PAGE_SIZE));
         add(mainPanel);
 
         // set visibility
@@ -127,6 +131,16 @@ public class ClientGUI extends JFrame {
         // swap to texting mode
         btnText.addActionListener(e -> textMode());
 
+        // show a page of older chat messages
+        btnEarlier.addActionListener(e -> {
+            try {
+                chatView.prepend(wbService.getChatPage(chatView.oldest(), ChatView.PAGE_SIZE));
+            } catch (RemoteException ex) {
+                System.out.println("Server Terminated, service ended :)");
+                System.exit(0);
+            }
+        });
+
         // send message to chat box
         btnSend.addActionListener(e -> {
             String message = jtfMessage.getText();
@@ -156,15 +170,26 @@ public class ClientGUI extends JFrame {
     }
 
     /**
-     * Show the latest list of chat history
-     * @param messageList a list of chat message
+     * Show a new chat message, fetching first the messages missed before it, page by page from the latest.
+     * At most as many as are shown are fetched, if more were missed the view starts again from those
+     * @param message the message
+     * @throws RemoteException if server is unreachable
      */
-    public void updateChatHist(CopyOnWriteArrayList<String> messageList) {
-        StringBuilder messages = new StringBuilder();
-        for (String s : messageList) {
-            messages.append(s).append("\n\n");
+    public void appendChat(ChatMessage message) throws RemoteException {
+        long newest = chatView.newest();
+        ArrayList<ChatMessage> missed = new ArrayList<>();
+        long before = message.seq;
+        while (newest > 0 && before > newest + 1 && missed.size() < ChatView.MAX_SHOWN) {
+            int limit = (int) Math.min(before - newest - 1, ChatView.PAGE_SIZE);
+            ArrayList<ChatMessage> page = wbService.getChatPage(before, limit);
+            if (page.isEmpty()) {
+                break; // server no longer keeps them
+            }
+            missed.addAll(0, page);
+            before = page.get(0).seq;
         }
-        jtaChatHist.setText(String.valueOf(messages));
+        chatView.appendAll(missed);
+        chatView.append(message);
     }
 
     /**
@@ -301,12 +326,18 @@ public class ClientGUI extends JFrame {
         chatPart.setAlignmentX(Component.CENTER_ALIGNMENT);
         panel.add(chatPart);
 
+        btnEarlier = new JButton("earlier messages");
+        btnEarlier.setMaximumSize(new Dimension(Integer.MAX_VALUE, btnEarlier.getPreferredSize().height));
+        btnEarlier.setAlignmentX(Component.CENTER_ALIGNMENT);
+        panel.add(btnEarlier);
+
         jtaChatHist = new JTextArea(8, 20);
         jtaChatHist.setLineWrap(true);  // 启用自动换行
         jtaChatHist.setWrapStyleWord(true);
         jtaChatHist.setEditable(false);
         jtaChatHist.setForeground(Color.WHITE);
         jtaChatHist.setBackground(Color.DARK_GRAY);
+        chatView = new ChatView(jtaChatHist);
         JScrollPane chatHistScrollPane = new JScrollPane(jtaChatHist);
         chatHistScrollPane.setAlignmentX(Component.CENTER_ALIGNMENT);
         panel.add(chatHistScrollPane);
@@ -1,7 +1,14 @@
 package org.a2.wb_client;
 
+import org.a2.common.BoardListener;
+import org.a2.common.BoardModel;
+import org.a2.common.BoardRenderer;
+import org.a2.common.InteractionSession;
 import org.a2.common.RemoteOperations;
+import org.a2.common.RepaintScheduler;
+import org.a2.common.WbEvent;
 import org.a2.common.WbLine;
+import org.a2.common.WbObject;
 import org.a2.common.WbShape;
 import org.a2.common.WbText;
 
@@ -11,24 +18,31 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.geom.Ellipse2D;
-import java.awt.geom.Line2D;
-import java.awt.geom.RectangularShape;
 import java.rmi.RemoteException;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * This Class contains all whiteboard definition and operations at client side
+ * This Class contains all whiteboard definition and operations at client side.
+ * It is a view of a replica of server's whiteboard model, all changes are requested from server.
+ * Components are found on the replica, so moving and resizing only send ids and offsets.
+ * Edits made while dragging are collected and sent at a fixed rate by an EditCoalescer,
+ * and shown at once as predicted copies drawn in place of replica's components.
+ * Settled shapes and strokes are painted from cached tiles, predicted copies and texts are drawn on top.
+ * Only the areas changed by server's events or by this user's predictions are repainted, once per frame.
  *
  * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
  */
-public class ClientWB extends JPanel implements MouseListener, MouseMotionListener {
+public class ClientWB extends JPanel implements MouseListener, MouseMotionListener, BoardListener {
     // define RMI service
     RemoteOperations wbService;
 
-    // List of whiteboard components
-    CopyOnWriteArrayList<WbShape> shapeList = new CopyOnWriteArrayList<>();
-    CopyOnWriteArrayList<WbLine> lineList = new CopyOnWriteArrayList<>();
-    CopyOnWriteArrayList<WbText> textList = new CopyOnWriteArrayList<>();
+    // Local replica of whiteboard components
+    final BoardModel board = new BoardModel();
+    final BoardRenderer renderer = new BoardRenderer(board);
+    final RepaintScheduler scheduler = new RepaintScheduler(this);
 
     // All whiteboard features
     JPopupMenu shapePopup;
@@ -36,12 +50,20 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
     Boolean drawing = false;
     Boolean erasing = false;
     Boolean texting = false;
-    int startX,startY; // start position of free draw
+    long strokeId; // free draw stroke being drawn, its temporary id until server created it
+    int lastX, lastY; // last point of the stroke being drawn
     Boolean dragging = false;
     Color drawingColor = Color.BLACK; // default free draw color
     Ellipse2D eraser;
     int eraserSize = 20; // default eraser size
 
+    // edits waiting to be sent, and selection and drag state of this user
+    final EditCoalescer edits;
+    final InteractionSession session;
+
+    // areas of predicted copies at last paint, repainted when the copies change
+    private final ConcurrentHashMap<Long, Rectangle> predictedDrawn = new ConcurrentHashMap<>();
+
     // current target selected by user
     WbShape target;
     WbText textTarget;
@@ -49,6 +71,8 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
     // constructor
     public ClientWB(RemoteOperations wbService) {
         this.wbService = wbService;
+        this.edits = new EditCoalescer(wbService, board, JoinWhiteboard.username);
+        this.session = new InteractionSession(board, edits);
 
         // add popup components and use when needed
         shapePopup();
@@ -57,6 +81,9 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
         // handle mouse operations
         addMouseListener(this);
         addMouseMotionListener(this);
+
+        // repaint areas changed by server
+        board.addListener(this);
     }
 
     @Override
@@ -64,17 +91,88 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
         super.paintComponent(g);
         Graphics2D g2d = (Graphics2D) g;
 
-        for (WbShape s : shapeList) {
-            s.drawShape(g2d);
+        // components with unconfirmed edits are drawn from their predicted copies
+        Set<Long> live = edits.predictedIds();
+        Rectangle area = g2d.getClipBounds();
+        renderer.paint(g2d, area == null ? new Rectangle(getSize()) : area, live);
+        for (long id : live) {
+            WbObject copy = edits.predicted(id);
+            if (copy instanceof WbShape s) {
+                s.drawShape(g2d);
+            } else if (copy instanceof WbLine l) {
+                l.drawLine(g2d);
+            }
+        }
+
+        for (WbText t : board.texts()){
+            edits.predicted(t).drawText(g2d);
+        }
+
+        // present control points of the shape selected by this user
+        WbShape selected = session.selectedShape();
+        if (selected != null) {
+            edits.predicted(selected).drawControlPoints(g2d);
         }
 
-        for (WbLine l : lineList){
-            l.drawLine(g2d);
+        predictedDrawn.clear();
+        for (long id : live) {
+            Rectangle r = predictedExtent(id);
+            if (r != null) {
+                predictedDrawn.put(id, r);
+            }
         }
+    }
 
-        for (WbText t : textList){
-            t.drawText(g2d);
+    @Override
+    public void boardChanged(ArrayList<WbEvent> events) {
+        scheduler.add(renderer.invalidate(events));
+    }
+
+    @Override
+    public void boardReplaced() {
+        renderer.invalidateAll();
+        scheduler.addAll();
+    }
+
+    /**
+     * Repaint where predicted copies were at last paint and where they are now, called after they change
+     */
+    void predictionsChanged() {
+        HashSet<Long> ids = new HashSet<>(predictedDrawn.keySet());
+        ids.addAll(edits.predictedIds());
+        for (long id : ids) {
+            Rectangle was = predictedDrawn.get(id);
+            Rectangle now = predictedExtent(id);
+            if (was != null && was.equals(now)) {
+                continue;
+            }
+            if (was != null) {
+                scheduler.add(was);
+            }
+            scheduler.add(now);
+        }
+    }
+
+    /**
+     * Find the area a component is drawn in, from its predicted copy if it has one
+     * @param id id of the component
+     * @return the area, empty if not on whiteboard, null for a text of unknown size
+     */
+    private Rectangle predictedExtent(long id) {
+        WbObject copy = edits.predicted(id);
+        if (copy == null) {
+            WbShape s = board.getShape(id);
+            WbLine l = board.getLine(id);
+            copy = s != null ? s : l != null ? l : board.getText(id);
+        }
+        if (copy == null) {
+            return new Rectangle();
+        }
+        Rectangle r = BoardRenderer.extent(copy);
+        if (r != null) {
+            r.grow(BoardRenderer.PAD, BoardRenderer.PAD);
         }
+        return r;
     }
 
     /**
@@ -121,7 +219,7 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
      */
     private void deleteTextItem() {
         try {
-            wbService.deleteText(textTarget);
+            wbService.deleteText(textTarget.id);
         } catch (RemoteException e) {
             throw new RuntimeException(e);
         }
@@ -132,7 +230,7 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
      */
     private void setTextColor() {
         try {
-            wbService.setTextColor2(textTarget,
+            wbService.setTextColor2(textTarget.id,
                     JColorChooser.showDialog(this, "Fill the shape with color:", Color.black));
         } catch (RemoteException e) {
             throw new RuntimeException(e);
@@ -149,7 +247,7 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
             return;
         }
         try {
-            wbService.setTextContent(textTarget, text);
+            wbService.setTextContent(textTarget.id, text);
         } catch (RemoteException e) {
             throw new RuntimeException(e);
         }
@@ -160,7 +258,7 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
      */
     private void deleteShape() {
         try {
-            wbService.deleteShape(target);
+            wbService.deleteShape(target.id);
         } catch (RemoteException e) {
             throw new RuntimeException(e);
         }
@@ -171,7 +269,7 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
      */
     private void addTextColor() {
         try {
-            wbService.setTextColor(target,
+            wbService.setTextColor(target.id,
                     JColorChooser.showDialog(this, "Set the text color:", Color.black));
         } catch (RemoteException e) {
             throw new RuntimeException(e);
@@ -183,7 +281,7 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
      */
     private void addFillColor() {
         try {
-            wbService.setFillColor(target,
+            wbService.setFillColor(target.id,
                     JColorChooser.showDialog(this, "Fill the shape with color:", Color.black));
         } catch (RemoteException e) {
             throw new RuntimeException(e);
@@ -195,7 +293,7 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
      */
     private void addShapeColor() {
         try {
-            wbService.setShapeColor(target,
+            wbService.setShapeColor(target.id,
                     JColorChooser.showDialog(this, "Set the border color:", Color.black));
         } catch (RemoteException e) {
             throw new RuntimeException(e);
@@ -209,18 +307,7 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
      * @return the shape if click within it
      */
     public WbShape findTarget(int x, int y) {
-        target = null;
-        for (WbShape s : shapeList) {
-            if (s.shape instanceof RectangularShape){
-                s.selected = s.shape.contains(x, y);
-            } else if (s.shape instanceof Line2D) {
-                s.selected = s.isClickNearLine((Line2D) s.shape, x, y);
-            }
-            if (s.selected){
-                target = s;
-                break;
-            }
-        }
+        target = session.shapeAt(x, y);
         return target;
     }
 
@@ -231,13 +318,7 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
      * @return the text if click within it
      */
     public WbText findTextTarget(int x, int y) {
-        textTarget = null;
-        for (WbText t : textList) {
-            if (t.contain(x,y)){
-                textTarget = t;
-                break;
-            }
-        }
+        textTarget = session.textAt(x, y);
         return textTarget;
     }
 
@@ -257,7 +338,7 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
             } else if (target != null && e.getClickCount() == 2) {
                 String text = JOptionPane.showInputDialog(this, "Enter text for rectangle:", target.text);
                 try {
-                    wbService.setText(target,text);
+                    wbService.setText(target.id,text);
                     repaint();
                 } catch (RemoteException ex) {
                     System.out.println("Server Terminated, service ended :)");
@@ -301,29 +382,20 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
 
         // Shape Mode
         if (! drawing && ! erasing && !texting) {
-            // Ask server to monitor mouse operation
-            try {
-                wbService.pressMouse("shape", e);
-                repaint();
-            } catch (RemoteException ex) {
-                System.out.println("Server Terminated, service ended :)");
-                System.exit(0);
-            }
+            // select a shape or one of its control points on local replica
+            session.press("shape", x, y);
+            repaint();
 
         // Draw Mode
         } else if (drawing) {
-            startX = x;
-            startY = y;
+            // stroke is drawn at once, server creates it at next tick
+            strokeId = edits.beginStroke(drawingColor, 0, x, y);
+            lastX = x;
+            lastY = y;
             dragging = true;
         // Text Mode
         }else if (texting){
-            try {
-                wbService.pressMouse("text",e);
-                repaint();
-            } catch (RemoteException ex) {
-                System.out.println("Server Terminated, service ended :)");
-                System.exit(0);
-            }
+            session.press("text", x, y);
         // Eraser Mode
         }else {
             dragging = true;
@@ -332,23 +404,22 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
 
     @Override
     public void mouseReleased(MouseEvent e) {
-        // Simulate release actions of server
-        try {
-            wbService.releaseMouse(e);
-            repaint();
-        } catch (RemoteException ex) {
-            throw new RuntimeException(ex);
+        // Finish free draw stroke, after its remaining points are sent
+        if (drawing && dragging) {
+            edits.endStroke(strokeId);
         }
+        session.release();
+        dragging = false;
     }
 
     @Override
     public void mouseDragged(MouseEvent e) {
         // Shape Mode
         if (! drawing && ! erasing && !texting) {
-            // Client ask server to perform drag operation
+            // Ask server to move or resize selected shape
             try {
-                wbService.dragMouse("shape", e);
-                repaint();
+                session.drag("shape", e.getX(), e.getY());
+                predictionsChanged();
             } catch (RemoteException ex) {
                 System.out.println("Server Terminated, service ended :)");
                 System.exit(0);
@@ -357,33 +428,24 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
         // Draw Mode
         } else if (drawing){
             if (dragging) {
-                int x = e.getX();
-                int y = e.getY();
-
-                // Add free draw line to whiteboard
-                try {
-                    wbService.addDraw(new WbLine(
-                            new Point(startX, startY),
-                            new Point(x, y),
-                            drawingColor,0));
-
-                } catch (RemoteException ex) {
-                    System.out.println("Server Terminated, service ended :)");
-                    System.exit(0);
-                }
-
-                // Update latest mouse position for next free draw line
-                startX = x;
-                startY = y;
-                repaint();
+                // points are sent in a batch at next tick
+                edits.appendStroke(strokeId, e.getX(), e.getY());
+
+                // only the new segment needs repainting
+                Rectangle segment = new Rectangle(lastX, lastY, 0, 0);
+                segment.add(e.getX(), e.getY());
+                segment.grow(BoardRenderer.PAD, BoardRenderer.PAD);
+                scheduler.add(segment);
+                lastX = e.getX();
+                lastY = e.getY();
             }
 
         // Text Mode
         } else if (texting) {
             // Ask server to move text's position
             try {
-                wbService.dragMouse("text", e);
-                repaint();
+                session.drag("text", e.getX(), e.getY());
+                predictionsChanged();
             } catch (RemoteException ex) {
                 System.out.println("Server Terminated, service ended :)");
                 System.exit(0);
@@ -406,7 +468,6 @@ public class ClientWB extends JPanel implements MouseListener, MouseMotionListen
                     System.out.println("Server Terminated, service ended :)");
                     System.exit(0);
                 }
-                repaint();
             }
         }
     }
@@ -0,0 +1,564 @@
+package org.a2.wb_client;
+
+import org.a2.common.BoardEditor;
+import org.a2.common.BoardModel;
+import org.a2.common.RemoteOperations;
+import org.a2.common.WbEvent;
+import org.a2.common.WbLine;
+import org.a2.common.WbObject;
+import org.a2.common.WbShape;
+import org.a2.common.WbText;
+
+import java.awt.*;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This Class collects the edits a user makes while dragging and sends them to server at a fixed rate.
+ * Moves of the same component are added up and only the latest position of a dragged control point
+ * is kept, so a fast mouse causes at most one call per component each tick instead of one per event.
+ * Free draw points are never dropped, they are sent in batches.
+ * Edits are also applied locally at once: every edit gets a sequence number, and until server reports
+ * an event of that number, the user sees its own predicted copy of the edited component on top of
+ * the replica, rebuilt from server's version whenever it changes.
+ * A new free draw stroke is started the same way, under a temporary negative id: its points are queued behind it,
+ * and once server has created the stroke, all its edits refer to the id server gave it.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public class EditCoalescer implements BoardEditor {
+
+    // sends per second, can be changed by -Dwb.sendHz=<rate>
+    static final int SEND_HZ = Math.max(1, Integer.getInteger("wb.sendHz", 30));
+
+    // define RMI service, the user's replica and the user's name that tags all edits
+    private final RemoteOperations wbService;
+    private final BoardModel board;
+    private final String username;
+
+    // edits waiting for next tick, in the order they were made
+    private ArrayList<Pending> pending = new ArrayList<>();
+    // last waiting edit of each component, a new edit of the same type is merged into it
+    private final HashMap<Long, Pending> latest = new HashMap<>();
+    // edits not yet reported back by server, waiting or sent, in sequence order
+    private final ArrayList<Pending> unconfirmed = new ArrayList<>();
+    private long nextSeq;
+    private long applied; // highest sequence number of this user's edits server has applied
+
+    // strokes started by this user, temporary id to the id server gave it, until the stroke ends
+    private final HashMap<Long, Long> bound = new HashMap<>();
+    private long nextTempId;
+
+    // predicted copies of components with unconfirmed edits, drawn instead of replica's
+    private final ConcurrentHashMap<Long, WbShape> shapes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, WbLine> lines = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, WbText> texts = new ConcurrentHashMap<>();
+
+    // constructor, starts sending at fixed rate
+    public EditCoalescer(RemoteOperations wbService, BoardModel board, String username) {
+        this.wbService = wbService;
+        this.board = board;
+        this.username = username;
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "wb-edit-sender");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = TimeUnit.SECONDS.toMicros(1) / SEND_HZ;
+        ticker.scheduleAtFixedRate(this::flush, period, period, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * @param s a shape of replica
+     * @return the shape as predicted by this user's unconfirmed edits
+     */
+    public WbShape predicted(WbShape s) {
+        return shapes.getOrDefault(s.id, s);
+    }
+
+    /**
+     * @param l a free draw stroke of replica
+     * @return the stroke as predicted by this user's unconfirmed edits
+     */
+    public WbLine predicted(WbLine l) {
+        return lines.getOrDefault(l.id, l);
+    }
+
+    /**
+     * @param t a text of replica
+     * @return the text as predicted by this user's unconfirmed edits
+     */
+    public WbText predicted(WbText t) {
+        return texts.getOrDefault(t.id, t);
+    }
+
+    /**
+     * @param id id of a component, or temporary id of a stroke server has not created yet
+     * @return the predicted copy of the component, null if it has none
+     */
+    public WbObject predicted(long id) {
+        WbShape shape = shapes.get(id);
+        WbLine line = lines.get(id);
+        return shape != null ? shape : line != null ? line : texts.get(id);
+    }
+
+    /**
+     * @return ids of components that have predicted copies
+     */
+    public Set<Long> predictedIds() {
+        HashSet<Long> ids = new HashSet<>(shapes.keySet());
+        ids.addAll(lines.keySet());
+        ids.addAll(texts.keySet());
+        return ids;
+    }
+
+    /**
+     * @return number of edits server has not reported back yet
+     */
+    synchronized int unconfirmedCount() {
+        return unconfirmed.size();
+    }
+
+    @Override
+    public synchronized void moveObject(long id, int dx, int dy) {
+        if (latest.get(id) instanceof Move move) {
+            move.dx += dx;
+            move.dy += dy;
+        } else {
+            add(new Move(id, dx, dy));
+        }
+
+        // apply to predicted copy at once
+        WbShape shape = shapes.get(id);
+        WbText text = texts.get(id);
+        if (shape != null) {
+            shape.moveBy(dx, dy);
+        } else if (text != null) {
+            text.moveBy(dx, dy);
+        } else {
+            predict(id);
+        }
+    }
+
+    @Override
+    public synchronized void resizeObject(long id, int handle, int x, int y) {
+        if (latest.get(id) instanceof Resize resize && resize.handle == handle) {
+            resize.x = x;
+            resize.y = y;
+        } else {
+            add(new Resize(id, handle, x, y));
+        }
+
+        WbShape shape = shapes.get(id);
+        if (shape != null) {
+            shape.adjustShape(handle, x, y);
+        } else {
+            predict(id);
+        }
+    }
+
+    /**
+     * Start a new free draw stroke. It is drawn at once and created on server at next tick,
+     * so pressing the pen never waits for server
+     * @param color color of the stroke
+     * @param size size of the stroke
+     * @param x x-value of the first point
+     * @param y y-value of the first point
+     * @return temporary id of the stroke, to add points and end it with
+     */
+    public synchronized long beginStroke(Color color, int size, int x, int y) {
+        long id = --nextTempId;
+        add(new Begin(id, color, size, x, y));
+        predict(id);
+        return id;
+    }
+
+    /**
+     * Add a point to the end of a free draw stroke
+     * @param id id of the stroke, temporary or from server
+     * @param x x-value of the point
+     * @param y y-value of the point
+     */
+    public synchronized void appendStroke(long id, int x, int y) {
+        id = bound.getOrDefault(id, id);
+        if (latest.get(id) instanceof Points points) {
+            points.add(x, y);
+        } else {
+            Points points = new Points(id);
+            points.add(x, y);
+            add(points);
+        }
+
+        WbLine line = lines.get(id);
+        if (line != null) {
+            line.append(x, y);
+        } else {
+            predict(id);
+        }
+    }
+
+    /**
+     * Finish a free draw stroke, sent after all its points
+     * @param id id of the stroke, temporary or from server
+     */
+    public synchronized void endStroke(long id) {
+        Long real = bound.remove(id);
+        if (real != null) {
+            id = real;
+        }
+        // ending changes nothing this user can see, so it is never waited for
+        End end = new End(id);
+        end.seq = ++nextSeq;
+        pending.add(end);
+        latest.put(id, end);
+    }
+
+    /**
+     * Queue an edit for next tick
+     * @param edit the edit
+     */
+    private void add(Pending edit) {
+        edit.seq = ++nextSeq;
+        pending.add(edit);
+        latest.put(edit.id, edit);
+        unconfirmed.add(edit);
+    }
+
+    /**
+     * Drop edits that server has applied and rebuild predicted copies of changed components.
+     * Called after events are applied to replica.
+     * @param events the events received from server
+     */
+    public synchronized void confirm(ArrayList<WbEvent> events) {
+        HashSet<Long> changed = new HashSet<>();
+        for (WbEvent e : events) {
+            changed.add(e.id);
+            if (username.equals(e.origin)) {
+                applied = Math.max(applied, e.seq);
+            }
+        }
+        dropApplied(changed);
+        for (long id : changed) {
+            predict(id);
+        }
+    }
+
+    /**
+     * Drop edits up to a sequence number server applied without any event, e.g. moves of a removed shape,
+     * and rebuild predicted copies of their components
+     * @param seq the sequence number
+     */
+    public synchronized void confirm(long seq) {
+        applied = Math.max(applied, seq);
+        HashSet<Long> changed = new HashSet<>();
+        dropApplied(changed);
+        for (long id : changed) {
+            predict(id);
+        }
+    }
+
+    /**
+     * Drop unconfirmed edits up to the highest sequence number server has applied.
+     * Server applies this user's edits in sequence order. Edits of a stroke still under its temporary id
+     * are kept until the id from server is known, as their predicted copy is all this user sees of it.
+     * @param changed receives ids of components whose edits were dropped
+     */
+    private void dropApplied(HashSet<Long> changed) {
+        Iterator<Pending> it = unconfirmed.iterator();
+        while (it.hasNext()) {
+            Pending edit = it.next();
+            if (edit.seq > applied) {
+                break;
+            }
+            if (edit.id >= 0) {
+                it.remove();
+                changed.add(edit.id);
+            }
+        }
+    }
+
+    /**
+     * Refer all edits of a new stroke to the id server gave it, called once server created the stroke
+     * @param batch edits being sent
+     * @param temp temporary id of the stroke
+     * @param real id of the stroke on server
+     */
+    private synchronized void bind(ArrayList<Pending> batch, long temp, long real) {
+        boolean ended = false;
+        for (ArrayList<Pending> edits : Arrays.asList(batch, pending, unconfirmed)) {
+            for (Pending edit : edits) {
+                if (edit.id == temp) {
+                    edit.id = real;
+                    ended |= edit instanceof End;
+                }
+            }
+        }
+        Pending last = latest.remove(temp);
+        if (last != null) {
+            latest.put(real, last);
+        }
+        // points added later still come with the temporary id, until the stroke ends
+        if (!ended) {
+            bound.put(temp, real);
+        }
+        lines.remove(temp);
+        HashSet<Long> changed = new HashSet<>();
+        changed.add(real);
+        dropApplied(changed);
+        for (long id : changed) {
+            predict(id);
+        }
+    }
+
+    /**
+     * Rebuild all predicted copies, called after the whole replica is replaced
+     */
+    public synchronized void refresh() {
+        shapes.clear();
+        lines.clear();
+        texts.clear();
+        for (Pending edit : unconfirmed) {
+            predict(edit.id);
+        }
+    }
+
+    /**
+     * Build the predicted copy of a component: replica's version with all unconfirmed edits applied.
+     * Nothing is predicted if there are no unconfirmed edits or replica does not have the component yet,
+     * except for a new stroke, which starts from its first point.
+     * @param id id of the component
+     */
+    private void predict(long id) {
+        WbShape shape = null;
+        WbLine line = null;
+        WbText text = null;
+        boolean found = false;
+        for (Pending edit : unconfirmed) {
+            if (edit.id != id) {
+                continue;
+            }
+            if (!found) {
+                found = true;
+                shape = board.getShape(id) == null ? null : new WbShape(board.getShape(id));
+                line = board.getLine(id) == null ? null : board.getLine(id).pointsFrom(0);
+                text = board.getText(id) == null ? null : new WbText(board.getText(id));
+            }
+            if (edit instanceof Begin begin) {
+                line = begin.start();
+            }
+            edit.predict(shape, line, text);
+        }
+        put(shapes, id, shape);
+        put(lines, id, line);
+        put(texts, id, text);
+    }
+
+    /**
+     * Store or remove a predicted copy
+     * @param map predicted copies of one kind
+     * @param id id of the component
+     * @param copy the predicted copy, null to remove
+     */
+    private static <T> void put(ConcurrentHashMap<Long, T> map, long id, T copy) {
+        if (copy == null) {
+            map.remove(id);
+        } else {
+            map.put(id, copy);
+        }
+    }
+
+    /**
+     * Send all waiting edits to server in the order they were made.
+     * Runs on the sending thread, edits made meanwhile wait and merge for next tick.
+     */
+    private void flush() {
+        ArrayList<Pending> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<>();
+            latest.clear();
+        }
+        try {
+            for (Pending edit : batch) {
+                edit.send(wbService, username);
+                if (edit instanceof Begin begin) {
+                    bind(batch, begin.id, begin.strokeId);
+                }
+            }
+        } catch (RemoteException ex) {
+            System.out.println("Server Terminated, service ended :)");
+            System.exit(0);
+        }
+    }
+
+    /**
+     * An edit waiting to be sent or confirmed
+     */
+    private abstract static class Pending {
+        long id; // id of the edited component, a new stroke's changes once server created it
+        long seq; // sequence number of this user's edit
+
+        Pending(long id) {
+            this.id = id;
+        }
+
+        // send the edit to server, tagged with user and sequence number
+        abstract void send(RemoteOperations wbService, String username) throws RemoteException;
+
+        // apply the edit to a predicted copy, copies the component is not of are null
+        abstract void predict(WbShape shape, WbLine line, WbText text);
+    }
+
+    /**
+     * Moves of a component added up
+     */
+    private static class Move extends Pending {
+        int dx, dy;
+
+        Move(long id, int dx, int dy) {
+            super(id);
+            this.dx = dx;
+            this.dy = dy;
+        }
+
+        @Override
+        void send(RemoteOperations wbService, String username) throws RemoteException {
+            wbService.moveObject(username, seq, id, dx, dy);
+        }
+
+        @Override
+        void predict(WbShape shape, WbLine line, WbText text) {
+            if (shape != null) {
+                shape.moveBy(dx, dy);
+            }
+            if (text != null) {
+                text.moveBy(dx, dy);
+            }
+        }
+    }
+
+    /**
+     * Latest position of a dragged control point
+     */
+    private static class Resize extends Pending {
+        final int handle;
+        int x, y;
+
+        Resize(long id, int handle, int x, int y) {
+            super(id);
+            this.handle = handle;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        void send(RemoteOperations wbService, String username) throws RemoteException {
+            wbService.resizeObject(username, seq, id, handle, x, y);
+        }
+
+        @Override
+        void predict(WbShape shape, WbLine line, WbText text) {
+            if (shape != null) {
+                shape.adjustShape(handle, x, y);
+            }
+        }
+    }
+
+    /**
+     * Start of a new free draw stroke
+     */
+    private static class Begin extends Pending {
+        final Color color;
+        final int size, x, y;
+        long strokeId; // id server gave the stroke, once sent
+
+        Begin(long id, Color color, int size, int x, int y) {
+            super(id);
+            this.color = color;
+            this.size = size;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        void send(RemoteOperations wbService, String username) throws RemoteException {
+            strokeId = wbService.beginStroke(username, seq, color, size, x, y);
+        }
+
+        // the stroke as it starts, before any other edit
+        WbLine start() {
+            WbLine line = new WbLine(color, size);
+            line.append(x, y);
+            return line;
+        }
+
+        @Override
+        void predict(WbShape shape, WbLine line, WbText text) {
+        }
+    }
+
+    /**
+     * New points of a free draw stroke
+     */
+    private static class Points extends Pending {
+        int[] xs = new int[32];
+        int[] ys = new int[32];
+        int count;
+
+        Points(long id) {
+            super(id);
+        }
+
+        void add(int x, int y) {
+            if (count == xs.length) {
+                xs = Arrays.copyOf(xs, count * 2);
+                ys = Arrays.copyOf(ys, count * 2);
+            }
+            xs[count] = x;
+            ys[count] = y;
+            count++;
+        }
+
+        @Override
+        void send(RemoteOperations wbService, String username) throws RemoteException {
+            wbService.appendStroke(username, seq, id, Arrays.copyOf(xs, count), Arrays.copyOf(ys, count));
+        }
+
+        @Override
+        void predict(WbShape shape, WbLine line, WbText text) {
+            if (line != null) {
+                line.append(xs, ys, count);
+            }
+        }
+    }
+
+    /**
+     * End of a free draw stroke
+     */
+    private static class End extends Pending {
+        End(long id) {
+            super(id);
+        }
+
+        @Override
+        void send(RemoteOperations wbService, String username) throws RemoteException {
+            wbService.endStroke(username, seq, id);
+        }
+
+        @Override
+        void predict(WbShape shape, WbLine line, WbText text) {
+        }
+    }
+}
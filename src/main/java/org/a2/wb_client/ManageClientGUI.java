@@ -5,6 +5,7 @@ import org.a2.common.*;
 import javax.swing.*;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
@@ -39,21 +40,53 @@ public class ManageClientGUI extends UnicastRemoteObject implements ReplyReceive
     }
 
     @Override
-    public void updateShape(CopyOnWriteArrayList<WbShape> shapes) throws RemoteException {
-        wbPanel.shapeList = shapes;
-        clientGUI.repaint();
+    public void applyEvents(WbPayload<ArrayList<WbEvent>> payload) throws RemoteException {
+        ArrayList<WbEvent> events = payload.decode();
+        // some events were missed, catch up first and then apply the rest
+        if (!wbPanel.board.apply(events)) {
+            catchUp();
+            wbPanel.board.apply(events);
+        }
+        wbPanel.edits.confirm(events);
+        // areas changed by events are repainted by the panel, as well as its changed predictions
+        wbPanel.predictionsChanged();
     }
 
     @Override
-    public void updateLine(CopyOnWriteArrayList<WbLine> lines) throws RemoteException {
-        wbPanel.lineList = lines;
-        clientGUI.repaint();
+    public void editApplied(long seq) throws RemoteException {
+        wbPanel.edits.confirm(seq);
+        wbPanel.predictionsChanged();
+    }
+
+    /**
+     * Bring replica up to date after missing some events, with a snapshot if server no longer has them
+     * @throws RemoteException if server is unreachable
+     */
+    private void catchUp() throws RemoteException {
+        ArrayList<WbPayload<ArrayList<WbEvent>>> batches = wbService.getEventsSince(wbPanel.board.version());
+        ArrayList<WbEvent> missed = new ArrayList<>();
+        if (batches != null) {
+            for (WbPayload<ArrayList<WbEvent>> batch : batches) {
+                missed.addAll(batch.decode());
+            }
+        }
+        if (batches != null && wbPanel.board.apply(missed)) {
+            wbPanel.edits.confirm(missed);
+        } else {
+            wbPanel.board.load(wbService.getSnapshot().decode());
+            wbPanel.edits.refresh();
+            wbPanel.renderer.invalidateAll();
+            wbPanel.scheduler.addAll();
+        }
     }
 
     @Override
-    public void updateText(CopyOnWriteArrayList<WbText> texts) throws RemoteException {
-        wbPanel.textList = texts;
-        clientGUI.repaint();
+    public void updateBoard(WbPayload<WbSnapshot> snapshot) throws RemoteException {
+        // shapes, strokes and texts are swapped at once, and painted together at the end of the frame
+        wbPanel.board.load(snapshot.decode());
+        wbPanel.edits.refresh();
+        wbPanel.renderer.invalidateAll();
+        wbPanel.scheduler.addAll();
     }
 
     @Override
@@ -91,8 +124,11 @@ public class ManageClientGUI extends UnicastRemoteObject implements ReplyReceive
     }
 
     @Override
-    public void updateChatHist(CopyOnWriteArrayList<String> messageList) throws RemoteException {
-        clientGUI.updateChatHist(messageList);
+    public void appendChat(ChatMessage message) throws RemoteException {
+        // messages sent before gui opens are fetched by gui itself
+        if (clientGUI != null) {
+            clientGUI.appendChat(message);
+        }
     }
 
     @Override
@@ -0,0 +1,133 @@
+package org.a2.wb_manager;
+
+import org.a2.common.BoardEditor;
+import org.a2.common.BoardModel;
+
+import javax.swing.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * This Class is the only writer of server's whiteboard model.
+ * RMI threads and manager's gui put commands into one queue, and a single board thread applies them
+ * one by one, so every change happens in a defined order and is published as soon as it is applied.
+ * The queue is bounded: when board thread falls behind, submitting waits for room instead of piling up commands.
+ * Readers, e.g. painting or taking a snapshot, read the model directly, so the model keeps its own lock.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public class BoardActor implements BoardEditor {
+
+    // the model, only changed by the board thread
+    final BoardModel board;
+
+    // most commands waiting, can be changed by -Dwb.boardQueue=<commands>
+    static final int CAPACITY = Math.max(1, Integer.getInteger("wb.boardQueue", 4096));
+
+    // commands waiting to be applied, put by many threads and taken by board thread
+    private final LinkedBlockingQueue<Runnable> commands = new LinkedBlockingQueue<>(CAPACITY);
+
+    // constructor, starts the board thread
+    public BoardActor(BoardModel board) {
+        this.board = board;
+        Thread thread = new Thread(this::run, "wb-board");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return number of commands waiting to be applied
+     */
+    public int queueDepth() {
+        return commands.size();
+    }
+
+    /**
+     * Apply a change to whiteboard later, in the order changes were submitted
+     * @param command the change
+     */
+    public void submit(Consumer<BoardModel> command) {
+        enqueue(() -> command.accept(board));
+    }
+
+    /**
+     * Apply a change to whiteboard later, and hand its result to the gui thread without waiting for it
+     * @param command the change
+     * @param then receives the result of the change, on the event dispatch thread
+     */
+    public <T> void submit(Function<BoardModel, T> command, Consumer<T> then) {
+        enqueue(() -> {
+            T result = command.apply(board);
+            SwingUtilities.invokeLater(() -> then.accept(result));
+        });
+    }
+
+    /**
+     * Apply a change to whiteboard and wait for its result, e.g. the id of a new component
+     * @param command the change
+     * @return result of the change
+     */
+    public <T> T call(Function<BoardModel, T> command) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        enqueue(() -> {
+            try {
+                result.complete(command.apply(board));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * Put a command into the queue, waiting while it is full
+     * @param command the command
+     */
+    private void enqueue(Runnable command) {
+        try {
+            commands.put(command);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void moveObject(long id, int dx, int dy) {
+        submit(b -> b.moveObject(id, dx, dy));
+    }
+
+    @Override
+    public void resizeObject(long id, int handle, int x, int y) {
+        submit(b -> b.resizeObject(id, handle, x, y));
+    }
+
+    /**
+     * Board thread, apply commands until the server ends. A failed command does not stop the thread.
+     */
+    private void run() {
+        while (true) {
+            Runnable command;
+            try {
+                command = commands.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                System.out.println("Cannot apply a whiteboard change: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.a2.wb_manager;
+
+import org.a2.common.WbLine;
+import org.a2.common.WbShape;
+import org.a2.common.WbSnapshot;
+import org.a2.common.WbText;
+
+import java.awt.*;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class saves whiteboards to files and opens them again.
+ * A file starts with a header: "WBRD" and the version of the file format, followed by a snapshot
+ * in its compact form. Files without header were saved before the header existed, as three lists
+ * of shapes, free draw lines and texts. Those are still opened: objects written by the first version
+ * of the component classes are read into copies of those classes here and converted, joining
+ * connected line segments into strokes.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+final class BoardFile {
+
+    private static final byte[] MAGIC = {'W', 'B', 'R', 'D'};
+    private static final int FORMAT = 1; // latest version of file format
+
+    private BoardFile() {
+    }
+
+    /**
+     * Save a whiteboard
+     * @param snapshot consistent copy of whiteboard
+     * @param filepath the destination file
+     * @throws IOException if file cannot be written
+     */
+    static void write(WbSnapshot snapshot, String filepath) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filepath))) {
+            out.write(MAGIC);
+            out.write(FORMAT);
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeObject(snapshot);
+            oos.flush();
+        }
+    }
+
+    /**
+     * Open a saved whiteboard
+     * @param filepath the source file
+     * @return the whiteboard content
+     * @throws IOException if file is not a whiteboard this version can read
+     */
+    static WbSnapshot read(String filepath) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(filepath))) {
+            in.mark(MAGIC.length + 1);
+            byte[] header = in.readNBytes(MAGIC.length);
+            if (!Arrays.equals(header, MAGIC)) {
+                in.reset();
+                return readWithoutHeader(in);
+            }
+            int format = in.read();
+            if (format < 1 || format > FORMAT) {
+                throw new InvalidObjectException("Whiteboard file format " + format + " is newer than this version");
+            }
+            try {
+                return (WbSnapshot) new ObjectInputStream(in).readObject();
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw new InvalidObjectException("Not a whiteboard file");
+            }
+        }
+    }
+
+    /**
+     * Read a file saved before the header existed
+     * @param in the file content
+     * @return the whiteboard content
+     * @throws IOException if file is not such a whiteboard
+     */
+    private static WbSnapshot readWithoutHeader(InputStream in) throws IOException {
+        try {
+            ObjectInputStream ois = new LegacyInputStream(in);
+            List<?> shapes = (List<?>) ois.readObject();
+            List<?> lines = (List<?>) ois.readObject();
+            List<?> texts = (List<?>) ois.readObject();
+
+            CopyOnWriteArrayList<WbShape> newShapes = new CopyOnWriteArrayList<>();
+            for (Object o : shapes) {
+                newShapes.add(o instanceof LegacyShape s ? s.convert() : (WbShape) o);
+            }
+            ArrayList<WbLine> newLines = new ArrayList<>();
+            LegacyLine previous = null;
+            for (Object o : lines) {
+                if (o instanceof LegacyLine l) {
+                    // a segment starting where the previous one ended continues its stroke
+                    if (previous != null && l.startPoint.equals(previous.endPoint)
+                            && l.size == previous.size && l.color != null && l.color.equals(previous.color)) {
+                        newLines.get(newLines.size() - 1).append(l.endPoint.x, l.endPoint.y);
+                    } else {
+                        newLines.add(l.convert());
+                    }
+                    previous = l;
+                } else {
+                    newLines.add((WbLine) o);
+                    previous = null;
+                }
+            }
+            CopyOnWriteArrayList<WbText> newTexts = new CopyOnWriteArrayList<>();
+            for (Object o : texts) {
+                newTexts.add(o instanceof LegacyText t ? t.convert() : (WbText) o);
+            }
+            return new WbSnapshot(newShapes, new CopyOnWriteArrayList<>(newLines), newTexts, 0);
+        } catch (ClassNotFoundException | ClassCastException | ObjectStreamException e) {
+            throw new InvalidObjectException("Not a whiteboard file, or saved in a format that can no longer be read");
+        }
+    }
+
+    /**
+     * Reads objects of the first version of component classes into the copies below
+     */
+    private static final class LegacyInputStream extends ObjectInputStream {
+
+        // constructor
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            if (desc.getSerialVersionUID() != 1L) {
+                return desc;
+            }
+            return switch (desc.getName()) {
+                case "org.a2.common.WbShape" -> ObjectStreamClass.lookup(LegacyShape.class);
+                case "org.a2.common.WbLine" -> ObjectStreamClass.lookup(LegacyLine.class);
+                case "org.a2.common.WbText" -> ObjectStreamClass.lookup(LegacyText.class);
+                default -> desc;
+            };
+        }
+    }
+
+    /**
+     * First version of WbShape, with the same serialized fields
+     */
+    @SuppressWarnings("unused")
+    private static final class LegacyShape implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        Shape shape;
+        String text;
+        Color shapeColor;
+        Color textColor;
+        Color fillColor;
+        Boolean selected;
+        ArrayList<Shape> controlPoints;
+        int selectedControl;
+
+        WbShape convert() {
+            WbShape s = new WbShape(shape);
+            s.text = text;
+            s.shapeColor = shapeColor;
+            s.textColor = textColor;
+            s.fillColor = fillColor;
+            return s;
+        }
+    }
+
+    /**
+     * First version of WbLine, a single segment, with the same serialized fields
+     */
+    private static final class LegacyLine implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        Point startPoint;
+        Point endPoint;
+        Color color;
+        int size;
+
+        WbLine convert() {
+            return new WbLine(new int[]{startPoint.x, endPoint.x}, new int[]{startPoint.y, endPoint.y}, 2, color, size);
+        }
+    }
+
+    /**
+     * First version of WbText, with the same serialized fields
+     */
+    @SuppressWarnings("unused")
+    private static final class LegacyText implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        String text;
+        int x;
+        int y;
+        Color color;
+        int textWidth;
+        int textHeight;
+
+        WbText convert() {
+            return new WbText(text, x, y, color);
+        }
+    }
+}
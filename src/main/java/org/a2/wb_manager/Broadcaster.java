@@ -0,0 +1,88 @@
+package org.a2.wb_manager;
+
+import org.a2.common.ReplyReceiver;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * This class fans out server messages to all users through their own outbound channel.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public class Broadcaster {
+
+    // max number of messages waiting for a single user
+    static final int QUEUE_CAPACITY = 1024;
+
+    // outbound channel of every registered user
+    static final ConcurrentHashMap<String, ClientChannel> channels = new ConcurrentHashMap<>();
+
+    // replaces the queue of a user who fell too far behind by a full copy of whiteboard content
+    static Consumer<ClientChannel> boardResync = channel -> channel.replaceQueued(r -> {});
+
+    /**
+     * A message to be delivered to a user
+     */
+    @FunctionalInterface
+    interface Outbound {
+        void sendTo(ReplyReceiver r) throws RemoteException;
+    }
+
+    /**
+     * Open an outbound channel for a user
+     * @param username the user
+     * @param r the user's remote interface instance
+     */
+    static void register(String username, ReplyReceiver r) {
+        ClientChannel old = channels.put(username, new ClientChannel(username, r, QUEUE_CAPACITY));
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * Close the outbound channel of a user
+     * @param username the user
+     */
+    static void unregister(String username) {
+        ClientChannel channel = channels.remove(username);
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Queue a message for all users
+     * @param message the message
+     */
+    static void broadcast(Outbound message) {
+        for (ClientChannel channel : channels.values()) {
+            deliver(channel, message);
+        }
+    }
+
+    /**
+     * Queue a message for a single user
+     * @param username the user
+     * @param message the message
+     */
+    static void send(String username, Outbound message) {
+        ClientChannel channel = channels.get(username);
+        if (channel != null) {
+            deliver(channel, message);
+        }
+    }
+
+    /**
+     * Queue a message for a user, resync the user if its queue is full
+     * @param channel the user's channel
+     * @param message the message
+     */
+    private static void deliver(ClientChannel channel, Outbound message) {
+        if (!channel.offer(message)) {
+            boardResync.accept(channel);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.a2.wb_manager;
+
+import org.a2.common.ChatMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * This class keeps the chat messages of whiteboard. Each message gets the next sequence number.
+ * All messages are appended to a log file, so chat is kept when the manager closes and continues
+ * from there when whiteboard starts again. A second file holds the position of each message in the log,
+ * in order of sequence numbers, 8 bytes each.
+ * Only the latest messages are kept in memory, in a ring of fixed size. Older pages are read by mapping
+ * just the part of both files they are in, so paging through old history never loads all of it.
+ * If the files cannot be used, chat is only kept in memory.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public class ChatLog {
+
+    // number of messages kept in memory, can be changed by -Dwb.chatSize=<messages>
+    static final int CAPACITY = Math.max(1, Integer.getInteger("wb.chatSize", 1000));
+
+    // most messages returned by a single page
+    static final int MAX_PAGE = 200;
+
+    // log file, one per port so whiteboards started in the same folder keep their own chat.
+    // Can be changed by -Dwb.chatLog=<path>, empty to keep chat in memory only
+    static final String FILE = System.getProperty("wb.chatLog", "whiteboard-" + CreateWhiteboard.port + ".chat");
+
+    // message of sequence number s is at (s - 1) % capacity
+    private final ChatMessage[] ring = new ChatMessage[CAPACITY];
+    private long last; // sequence number of the latest message, 0 if none
+
+    // messages as length and UTF-8 text, and position of each of them. Null if chat is in memory only
+    private FileChannel data;
+    private FileChannel index;
+    private long dataEnd; // length of complete messages in log
+
+    // constructor
+    ChatLog() {
+        this(FILE.isEmpty() ? null : Path.of(FILE));
+    }
+
+    // constructor, file is null to keep chat in memory only
+    ChatLog(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            open(file);
+        } catch (IOException e) {
+            System.out.println("Cannot open chat log " + file + ", chat is kept in memory only.");
+            closeFiles();
+            last = 0;
+        }
+    }
+
+    /**
+     * Open the log files, drop a message that was not completely written, and load the latest messages
+     * @param file the log file, the index file is next to it
+     * @throws IOException if files cannot be used
+     */
+    private void open(Path file) throws IOException {
+        data = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = FileChannel.open(Path.of(file + ".idx"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long n = index.size() / Long.BYTES;
+        long end = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        while (n > 0) {
+            buffer.clear();
+            index.read(buffer, (n - 1) * Long.BYTES);
+            long offset = buffer.getLong(0);
+            buffer.clear().limit(Integer.BYTES);
+            if (offset >= 0 && offset + Integer.BYTES <= data.size() && data.read(buffer, offset) == Integer.BYTES) {
+                end = offset + Integer.BYTES + buffer.getInt(0);
+                if (end >= offset + Integer.BYTES && end <= data.size()) {
+                    break;
+                }
+            }
+            end = 0;
+            n--;
+        }
+        index.truncate(n * Long.BYTES);
+        data.truncate(end);
+        dataEnd = end;
+        last = n;
+
+        for (ChatMessage m : read(Math.max(1, last - CAPACITY + 1), last + 1)) {
+            ring[slot(m.seq)] = m;
+        }
+    }
+
+    /**
+     * Add a message after all others, and write it to log
+     * @param text sender name and content
+     * @return the message with its sequence number
+     */
+    synchronized ChatMessage append(String text) {
+        ChatMessage message = new ChatMessage(++last, text);
+        ring[slot(last)] = message;
+        if (data != null) {
+            try {
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + bytes.length).putInt(bytes.length).put(bytes);
+                ByteBuffer position = ByteBuffer.allocate(Long.BYTES).putLong(dataEnd);
+                writeFully(data, record.flip(), dataEnd);
+                writeFully(index, position.flip(), (last - 1) * Long.BYTES);
+                dataEnd += record.capacity();
+            } catch (IOException e) {
+                System.out.println("Cannot write chat log, chat is kept in memory only from now on.");
+                closeFiles();
+            }
+        }
+        return message;
+    }
+
+    /**
+     * @return the latest message, null if none was sent
+     */
+    synchronized ChatMessage latest() {
+        return last == 0 ? null : ring[slot(last)];
+    }
+
+    /**
+     * Find the latest messages sent before a sequence number
+     * @param before sequence number after the wanted messages
+     * @param limit most messages to return, at most MAX_PAGE
+     * @return the messages still kept, oldest first
+     */
+    synchronized ArrayList<ChatMessage> before(long before, int limit) {
+        long to = Math.min(before, last + 1); // first sequence number not returned
+        long from = Math.max(1, to - Math.min(Math.max(limit, 0), MAX_PAGE));
+        long inMemory = Math.max(1, last - CAPACITY + 1); // oldest message in ring
+        if (from < inMemory && data != null) {
+            try {
+                return read(from, to);
+            } catch (IOException e) {
+                System.out.println("Cannot read chat log, only the latest messages are available.");
+            }
+        }
+        ArrayList<ChatMessage> page = new ArrayList<>();
+        for (long s = Math.max(from, inMemory); s < to; s++) {
+            page.add(ring[slot(s)]);
+        }
+        return page;
+    }
+
+    /**
+     * Read messages from log by mapping only the parts of files they are in
+     * @param from sequence number of the first message
+     * @param to sequence number after the last message
+     * @return the messages, oldest first
+     * @throws IOException if files cannot be read
+     */
+    private ArrayList<ChatMessage> read(long from, long to) throws IOException {
+        ArrayList<ChatMessage> page = new ArrayList<>();
+        if (from >= to) {
+            return page;
+        }
+        // positions of the messages, and of the one after them if any, which is where they end
+        int count = (int) (to - from) + (to <= last ? 1 : 0);
+        MappedByteBuffer positions = index.map(FileChannel.MapMode.READ_ONLY, (from - 1) * Long.BYTES,
+                (long) count * Long.BYTES);
+        long start = positions.getLong(0);
+        long end = to <= last ? positions.getLong((count - 1) * Long.BYTES) : dataEnd;
+
+        MappedByteBuffer records = data.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        for (long s = from; s < to; s++) {
+            int offset = (int) (positions.getLong((int) (s - from) * Long.BYTES) - start);
+            byte[] bytes = new byte[records.getInt(offset)];
+            records.get(offset + Integer.BYTES, bytes);
+            page.add(new ChatMessage(s, new String(bytes, StandardCharsets.UTF_8)));
+        }
+        return page;
+    }
+
+    /**
+     * Write all bytes of a buffer at a position of a file
+     */
+    private static void writeFully(FileChannel file, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += file.write(buffer, position);
+        }
+    }
+
+    /**
+     * Stop using log files, chat is kept in memory only
+     */
+    private void closeFiles() {
+        for (FileChannel file : new FileChannel[]{data, index}) {
+            try {
+                if (file != null) {
+                    file.close();
+                }
+            } catch (IOException ignored) {
+                // nothing more to do with this file
+            }
+        }
+        data = null;
+        index = null;
+    }
+
+    /**
+     * @return position in ring of a sequence number
+     */
+    private static int slot(long seq) {
+        return (int) ((seq - 1) % CAPACITY);
+    }
+}
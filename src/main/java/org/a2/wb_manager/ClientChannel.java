@@ -0,0 +1,131 @@
+package org.a2.wb_manager;
+
+import org.a2.common.ChatMessage;
+import org.a2.common.ReplyReceiver;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is the outbound connection to a single user. Messages are queued and sent
+ * by a dedicated thread, so a slow user never blocks the whiteboard or other users.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public class ClientChannel {
+
+    // weight of the latest send when averaging latency
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    final String username;
+    final ReplyReceiver receiver;
+    private final ArrayBlockingQueue<Broadcaster.Outbound> queue;
+    private final Thread sender;
+
+    // send statistics of this user
+    private volatile long lastLatencyNanos;
+    private volatile double avgLatencyNanos;
+    private final AtomicLong dropped = new AtomicLong(); // times the queue overflowed, counted by any producer
+
+    // constructor
+    ClientChannel(String username, ReplyReceiver receiver, int capacity) {
+        this.username = username;
+        this.receiver = receiver;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.sender = new Thread(this::run, "wb-sender-" + username);
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    /**
+     * Queue a message for this user
+     * @param message the message to be sent
+     * @return false if the user is too slow and its queue is full
+     */
+    boolean offer(Broadcaster.Outbound message) {
+        return queue.offer(message);
+    }
+
+    /**
+     * Replace all waiting messages by a full copy of the current state, used when the user fell
+     * too far behind. Must be called while whiteboard changes are blocked, so the copy is
+     * consistent with the changes queued afterwards.
+     * @param board message carrying a full copy of whiteboard content
+     */
+    void replaceQueued(Broadcaster.Outbound board) {
+        dropped.incrementAndGet();
+        queue.clear();
+        queue.offer(r -> {
+            board.sendTo(r);
+            r.updateUserList(ManageUser.names);
+            // user fetches the messages it missed before the latest one
+            ChatMessage last = ManageUser.chat.latest();
+            if (last != null) {
+                r.appendChat(last);
+            }
+        });
+    }
+
+    /**
+     * Stop sending messages to this user
+     */
+    void close() {
+        sender.interrupt();
+    }
+
+    /**
+     * @return number of messages waiting to be sent
+     */
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return time taken by the latest send in milliseconds
+     */
+    public double lastLatencyMillis() {
+        return lastLatencyNanos / 1e6;
+    }
+
+    /**
+     * @return moving average of send time in milliseconds
+     */
+    public double avgLatencyMillis() {
+        return avgLatencyNanos / 1e6;
+    }
+
+    /**
+     * @return number of times this user fell so far behind that its queue was replaced
+     */
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Sender loop, deliver queued messages in order until user leaves
+     */
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Broadcaster.Outbound message = queue.take();
+                long start = System.nanoTime();
+                try {
+                    message.sendTo(receiver);
+                } catch (RuntimeException e) {
+                    // user failed to handle this message, e.g. its gui is not open yet. Keep sending the rest
+                    System.out.println("Cannot deliver a message to " + username + ": " + e);
+                }
+                long latency = System.nanoTime() - start;
+                lastLatencyNanos = latency;
+                avgLatencyNanos = avgLatencyNanos == 0
+                        ? latency : avgLatencyNanos + LATENCY_WEIGHT * (latency - avgLatencyNanos);
+            }
+        } catch (InterruptedException ignored) {
+            // user left whiteboard
+        } catch (RemoteException ignored) {
+            // user is unreachable, remove it from whiteboard
+            ManageUser.remove(receiver);
+        }
+    }
+}
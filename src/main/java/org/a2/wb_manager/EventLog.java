@@ -0,0 +1,94 @@
+package org.a2.wb_manager;
+
+import org.a2.common.WbEvent;
+import org.a2.common.WbPayload;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * This class keeps the latest changes of server's whiteboard, so a user that missed some can ask for
+ * everything since its version, and only needs a snapshot if that is too old.
+ * Changes are kept as the batches encoded for users while the model was locked, never as the events themselves:
+ * events refer to the live components, which keep changing after the event, while the bytes hold each
+ * component as it was at that version. Replaying them gives exactly the server's whiteboard.
+ *
+ * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
+ */
+public class EventLog {
+
+    // most events kept, can be changed by -Dwb.logSize=<events>
+    static final int CAPACITY = Math.max(1, Integer.getInteger("wb.logSize", 8192));
+
+    private final ArrayDeque<Batch> batches = new ArrayDeque<>(); // oldest first
+    private long start; // batches hold the events after this version
+    private long end; // version of the latest event kept
+    private int size; // number of events kept
+
+    /**
+     * Encoded events of a single change
+     */
+    private static final class Batch {
+        final WbPayload<ArrayList<WbEvent>> payload;
+        final int count; // number of events in payload
+
+        Batch(WbPayload<ArrayList<WbEvent>> payload, int count) {
+            this.payload = payload;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Encode the events of a change and keep them. Must be called while the model is locked,
+     * right after the events were applied
+     * @param events the events, in the order they were applied
+     * @param version version of whiteboard after the events
+     * @return the encoded events, to be sent to users as well
+     */
+    public synchronized WbPayload<ArrayList<WbEvent>> record(ArrayList<WbEvent> events, long version) {
+        WbPayload<ArrayList<WbEvent>> payload = WbPayload.encode(events, version);
+        if (version - events.size() != end) {
+            // some versions were not recorded, older batches cannot be replayed up to this one
+            clear(version - events.size());
+        }
+        batches.addLast(new Batch(payload, events.size()));
+        size += events.size();
+        end = version;
+        while (size > CAPACITY && batches.size() > 1) {
+            Batch oldest = batches.removeFirst();
+            size -= oldest.count;
+            start += oldest.count;
+        }
+        return payload;
+    }
+
+    /**
+     * Drop all kept events, e.g. when the whole board is replaced
+     * @param version version of whiteboard, only events after it can be recorded next
+     */
+    public synchronized void clear(long version) {
+        batches.clear();
+        size = 0;
+        start = version;
+        end = version;
+    }
+
+    /**
+     * Find all events after a version
+     * @param since the version
+     * @return the encoded batches holding them in order, a batch may also hold events up to the version.
+     * Null if they are no longer kept
+     */
+    public synchronized ArrayList<WbPayload<ArrayList<WbEvent>>> since(long since) {
+        if (since < start || since > end) {
+            return null;
+        }
+        ArrayList<WbPayload<ArrayList<WbEvent>>> found = new ArrayList<>();
+        for (Batch b : batches) {
+            if (b.payload.version > since) {
+                found.add(b.payload);
+            }
+        }
+        return found;
+    }
+}
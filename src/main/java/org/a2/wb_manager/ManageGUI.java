@@ -3,42 +3,124 @@ package org.a2.wb_manager;
 import org.a2.common.*;
 
 import java.awt.*;
-import java.awt.event.MouseEvent;
 import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class implement all remote methods that are shared to all RMI clients.
+ * It also forwards every change of the whiteboard model to all users.
+ * Changes and copies of the board are encoded once and the same bytes are sent to every user.
+ * Changes are not applied by RMI threads, they are submitted to the board actor, the only writer of the model.
+ * When there is no display, server runs without gui and join requests are permitted automatically.
  *
  * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
  */
-public class ManageGUI extends UnicastRemoteObject implements RemoteOperations {
+public class ManageGUI extends UnicastRemoteObject implements RemoteOperations, BoardListener {
 
-    ServerWB wbPanel;
-    ServerGUI gui;
+    BoardModel board;
+    BoardActor actor; // applies all changes to board in order
+    ServerWB wbPanel; // null if headless
+    ServerGUI gui; // null if headless
+
+    // latest encoded copy of whiteboard, reused until the version changes
+    private volatile WbPayload<WbSnapshot> snapshotCache;
+
+    // latest changes as sent to users, for users that missed some
+    final EventLog log = new EventLog();
 
     // constructor
     protected ManageGUI() throws RemoteException {
+        board = new BoardModel();
+        board.addListener(this);
+        actor = new BoardActor(board);
+
+        // users who fell too far behind are brought up to date with a full copy of whiteboard
+        Broadcaster.boardResync = this::resync;
+
         // start a server gui
-        gui = new ServerGUI();
-        wbPanel = gui.wbPanel;
+        if (!GraphicsEnvironment.isHeadless()) {
+            gui = new ServerGUI(actor);
+            wbPanel = gui.wbPanel;
+        }
+    }
+
+    @Override
+    public void boardChanged(ArrayList<WbEvent> events) {
+        // encoded while the model is locked, so every user gets the components as they were at these events.
+        // Without users, nobody can miss them: a user who joins later starts from a snapshot
+        if (Broadcaster.channels.isEmpty()) {
+            log.clear(board.version());
+        } else {
+            ManageUser.updateBoard(log.record(events, board.version()));
+        }
+    }
+
+    @Override
+    public void editApplied(String origin, long seq) {
+        // queued behind the user's earlier events, so it never confirms an edit before its events arrive
+        Broadcaster.send(origin, r -> r.editApplied(seq));
+    }
+
+    @Override
+    public void boardReplaced() {
+        log.clear(board.version());
+        ManageUser.updateSnapshot(encodedSnapshot());
+    }
+
+    /**
+     * Encode a copy of all components, or reuse the latest one if the board has not changed since
+     * @return the encoded copy
+     */
+    private WbPayload<WbSnapshot> encodedSnapshot() {
+        synchronized (board) {
+            WbPayload<WbSnapshot> cached = snapshotCache;
+            if (cached == null || cached.version != board.version()) {
+                cached = WbPayload.encode(board.snapshot(), board.version());
+                snapshotCache = cached;
+            }
+            return cached;
+        }
+    }
+
+    /**
+     * Replace everything waiting for a slow user by a copy of all components. Synchronized with
+     * the model, so the copy is consistent with the changes queued after it.
+     * @param channel the slow user's channel
+     */
+    private void resync(ClientChannel channel) {
+        synchronized (board) {
+            WbPayload<WbSnapshot> snapshot = encodedSnapshot();
+            channel.replaceQueued(r -> r.updateBoard(snapshot));
+        }
     }
 
     @Override
     public CopyOnWriteArrayList<WbShape> getShapes() throws RemoteException {
-        return wbPanel.shapeList;
+        return board.shapes();
     }
 
     @Override
     public CopyOnWriteArrayList<WbLine> getDraws() throws RemoteException {
-        return wbPanel.lineList;
+        return new CopyOnWriteArrayList<>(board.lines().toList());
     }
 
     @Override
     public CopyOnWriteArrayList<WbText> getTexts() throws RemoteException {
-        return wbPanel.textList;
+        return board.texts();
+    }
+
+    @Override
+    public WbPayload<WbSnapshot> getSnapshot() throws RemoteException {
+        return encodedSnapshot();
+    }
+
+    @Override
+    public ArrayList<WbPayload<ArrayList<WbEvent>>> getEventsSince(long version) throws RemoteException {
+        return log.since(version);
     }
 
     @Override
@@ -47,23 +129,23 @@ public class ManageGUI extends UnicastRemoteObject implements RemoteOperations {
     }
 
     @Override
-    public CopyOnWriteArrayList<String> getChatHist() throws RemoteException {
-        return ManageUser.chatHist;
+    public ArrayList<ChatMessage> getChatPage(long before, int limit) throws RemoteException {
+        return ManageUser.chat.before(before, limit);
     }
 
     @Override
     public void addRect() throws RemoteException {
-        gui.btnRect.doClick();
+        actor.submit(b -> b.addShape(new WbShape(new Rectangle(50, 50, 50, 50))));
     }
 
     @Override
     public void addOval() throws RemoteException {
-        gui.btnCircle.doClick();
+        actor.submit(b -> b.addShape(new WbShape(new Ellipse2D.Double(50, 200, 50, 50))));
     }
 
     @Override
     public void addLine() throws RemoteException {
-        gui.btnLine.doClick();
+        actor.submit(b -> b.addShape(new WbShape(new Line2D.Double(50, 350, 50, 450))));
     }
 
     @Override
@@ -73,19 +155,14 @@ public class ManageGUI extends UnicastRemoteObject implements RemoteOperations {
             r.duplicateName();
         }else{
             // ask manager to answer user's request of join
-            if (gui.showPermissionDialog(username)){
-                ManageUser.clients.put(username,r);
-                ManageUser.names.add(username);
-                gui.updateUserList();
+            if (gui == null || gui.showPermissionDialog(username)){
+                ManageUser.add(username, r);
+                ServerGUI.updateUserList();
 
                 // update all other users gui user list
-                for (ReplyReceiver receiver : ManageUser.clients.values()){
-                    if (receiver != r){
-                        try {
-                            receiver.updateUserList(ManageUser.names);
-                        } catch (RemoteException e) {
-                            throw new RuntimeException(e);
-                        }
+                for (String name : ManageUser.clients.keySet()){
+                    if (!name.equals(username)){
+                        Broadcaster.send(name, receiver -> receiver.updateUserList(ManageUser.names));
                     }
                 }
 
@@ -102,176 +179,94 @@ public class ManageGUI extends UnicastRemoteObject implements RemoteOperations {
     public void quit(String username) throws RemoteException {
         ManageUser.clients.remove(username);
         ManageUser.names.remove(username);
-        gui.updateUserList();
+        Broadcaster.unregister(username);
+        ServerGUI.updateUserList();
         ManageUser.updateValidUser();
     }
 
     @Override
-    public void pressMouse(String mode, MouseEvent event) throws RemoteException {
-        // Ask Server to perform press action in request mode
-        String currMode = "shape";
-        if (wbPanel.drawing){
-            currMode = "draw";
-        } else if (wbPanel.erasing) {
-            currMode = "erase";
-        } else if (wbPanel.texting) {
-            currMode = "text";
-        }
-
-        if (mode.equals("shape")){
-            gui.shapeMode();
-            wbPanel.mousePressed(event);
-        } else if (mode.equals("text")) {
-            gui.textMode();
-            wbPanel.mousePressed(event);
-        }
-
-        // return to original mode
-        switch (currMode) {
-            case "draw" -> gui.drawMode();
-            case "erase" -> gui.eraseMode();
-            case "text" -> gui.textMode();
-            default -> gui.shapeMode();
-        }
+    public void moveObject(String origin, long seq, long id, int dx, int dy) throws RemoteException {
+        actor.submit(b -> b.edit(origin, seq, () -> b.moveObject(id, dx, dy)));
     }
 
     @Override
-    public void dragMouse(String mode, MouseEvent event) throws RemoteException {
-        // Ask Server to perform drag action in request mode
-        String currMode = "shape";
-        if (wbPanel.drawing){
-            currMode = "draw";
-        } else if (wbPanel.erasing) {
-            currMode = "erase";
-        } else if (wbPanel.texting) {
-            currMode = "text";
-        }
-
-        if (mode.equals("shape")){
-            gui.shapeMode();
-            wbPanel.mouseDragged(event);
-        } else if (mode.equals("text")) {
-            gui.textMode();
-            wbPanel.mouseDragged(event);
-        }
-
-        // return to original mode
-        switch (currMode) {
-            case "draw" -> gui.drawMode();
-            case "erase" -> gui.eraseMode();
-            case "text" -> gui.textMode();
-            default -> gui.shapeMode();
-        }
+    public void resizeObject(String origin, long seq, long id, int handle, int x, int y) throws RemoteException {
+        actor.submit(b -> b.edit(origin, seq, () -> b.resizeObject(id, handle, x, y)));
     }
 
     @Override
-    public void releaseMouse(MouseEvent event) throws RemoteException {
-        wbPanel.mouseReleased(event);
+    public void setShapeColor(long shapeId, Color color) throws RemoteException {
+        actor.submit(b -> b.updateShape(shapeId, s -> s.shapeColor = color));
     }
 
+    @Override
+    public void setFillColor(long shapeId, Color color) throws RemoteException {
+        actor.submit(b -> b.updateShape(shapeId, s -> s.fillColor = color));
+    }
 
     @Override
-    public void setShapeColor(WbShape shape, Color color) throws RemoteException {
-        wbPanel.shapeList.get(findIndex(shape)).shapeColor = color;
-        wbPanel.repaint();
+    public void setTextColor(long shapeId, Color color) throws RemoteException {
+        actor.submit(b -> b.updateShape(shapeId, s -> s.textColor = color));
     }
 
     @Override
-    public void setFillColor(WbShape shape, Color color) throws RemoteException {
-        wbPanel.shapeList.get(findIndex(shape)).fillColor = color;
-        wbPanel.repaint();
+    public void setText(long shapeId, String text) throws RemoteException {
+        actor.submit(b -> b.updateShape(shapeId, s -> s.text = text));
     }
 
     @Override
-    public void setTextColor(WbShape shape, Color color) throws RemoteException {
-        wbPanel.shapeList.get(findIndex(shape)).textColor = color;
-        wbPanel.repaint();
+    public void deleteShape(long shapeId) throws RemoteException {
+        actor.submit(b -> b.removeShape(shapeId));
     }
 
     @Override
-    public void setText(WbShape shape, String text) throws RemoteException {
-        for (WbShape s : wbPanel.shapeList){
-            if (s.equals(shape)){
-                s.text = text;
-                wbPanel.repaint();
-                break;
-            }
-        }
+    public long beginStroke(String origin, long seq, Color color, int size, int x, int y) throws RemoteException {
+        return actor.call(b -> {
+            long[] id = new long[1];
+            b.edit(origin, seq, () -> id[0] = b.beginStroke(color, size, x, y));
+            return id[0];
+        });
     }
 
     @Override
-    public void deleteShape(WbShape shape) throws RemoteException {
-        wbPanel.shapeList.remove(shape);
-        wbPanel.repaint();
+    public void appendStroke(String origin, long seq, long strokeId, int[] xs, int[] ys) throws RemoteException {
+        actor.submit(b -> b.edit(origin, seq, () -> b.appendStroke(strokeId, xs, ys)));
     }
 
     @Override
-    public void addDraw(WbLine line) throws RemoteException {
-        wbPanel.lineList.add(line);
-        wbPanel.repaint();
+    public void endStroke(String origin, long seq, long strokeId) throws RemoteException {
+        actor.submit(b -> b.edit(origin, seq, () -> b.endStroke(strokeId)));
     }
 
     @Override
     public void eraseDraw(Ellipse2D eraser) throws RemoteException {
-        wbPanel.lineList.removeIf(l -> l.withinEraser(eraser));
-        wbPanel.repaint();
+        actor.submit(b -> b.eraseStrokes(eraser));
     }
 
     @Override
     public void addText(WbText text) throws RemoteException {
-        wbPanel.textList.add(text);
-        wbPanel.repaint();
+        actor.submit(b -> b.addText(text));
     }
 
     @Override
-    public void setTextContent(WbText text, String s) throws RemoteException {
-        for (WbText t : wbPanel.textList){
-            if (t.equals(text)){
-                t.text = s;
-                wbPanel.repaint();
-                break;
-            }
-        }
+    public void setTextContent(long textId, String s) throws RemoteException {
+        actor.submit(b -> b.updateText(textId, t -> t.text = s));
     }
 
     @Override
-    public void setTextColor2(WbText text, Color color) throws RemoteException {
-        for (WbText t : wbPanel.textList){
-            if (t.equals(text)){
-                t.color = color;
-                wbPanel.repaint();
-                break;
-            }
-        }
+    public void setTextColor2(long textId, Color color) throws RemoteException {
+        actor.submit(b -> b.updateText(textId, t -> t.color = color));
     }
 
     @Override
-    public void deleteText(WbText text) throws RemoteException {
-        wbPanel.textList.remove(text);
-        wbPanel.repaint();
+    public void deleteText(long textId) throws RemoteException {
+        actor.submit(b -> b.removeText(textId));
     }
 
     @Override
     public void sendMessage(String s) throws RemoteException {
-        ManageUser.chatHist.add(s);
-        gui.updateChatHist();
-        ManageUser.updateChatHist();
+        ManageUser.sendChat(s, gui == null ? null : gui.chatView);
     }
 
-    /**
-     * find the index of request target in the shape list
-     * @param shape the target
-     * @return the index of target, -1 if cant find any
-     */
-    private int findIndex(WbShape shape){
-        for (int i = 0; i < wbPanel.shapeList.size(); i++) {
-            if (wbPanel.shapeList.get(i).equals(shape)){
-                return i;
-            }
-        }
-        return -1;
-    }
-
-
 }
 
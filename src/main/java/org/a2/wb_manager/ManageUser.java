@@ -1,8 +1,14 @@
 package org.a2.wb_manager;
 
+import org.a2.common.ChatMessage;
+import org.a2.common.ChatView;
 import org.a2.common.ReplyReceiver;
+import org.a2.common.WbEvent;
+import org.a2.common.WbPayload;
+import org.a2.common.WbSnapshot;
 
 import java.rmi.RemoteException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
@@ -19,7 +25,18 @@ public class ManageUser {
     // Store all user instances and names and chat histories
     static ConcurrentHashMap<String, ReplyReceiver> clients = new ConcurrentHashMap<>();
     static CopyOnWriteArrayList<String> names = new CopyOnWriteArrayList<>();
-    static CopyOnWriteArrayList<String> chatHist = new CopyOnWriteArrayList<>();
+    static final ChatLog chat = new ChatLog();
+
+    /**
+     * Add a permitted user to whiteboard and open its outbound channel
+     * @param username the user
+     * @param replyReceiver the clients remote interface instance
+     */
+    static void add(String username, ReplyReceiver replyReceiver){
+        clients.put(username, replyReceiver);
+        names.add(username);
+        Broadcaster.register(username, replyReceiver);
+    }
 
     /**
      * Kick a user out from whiteboard
@@ -35,6 +52,7 @@ public class ManageUser {
             }finally {
                 clients.remove(username);
                 names.remove(username);
+                Broadcaster.unregister(username);
                 updateValidUser();
             }
         }
@@ -53,6 +71,7 @@ public class ManageUser {
             if (r.equals(replyReceiver)) {
                 iterator.remove();
                 names.remove(id);
+                Broadcaster.unregister(id);
                 updateValidUser();
                 ServerGUI.updateUserList();
                 break;
@@ -64,26 +83,43 @@ public class ManageUser {
      * send the latest valid user list to all users
      */
     static void updateValidUser(){
-        for (ReplyReceiver r : clients.values()){
-            try {
-                r.updateUserList(names);
-            } catch (RemoteException e) {
-                throw new RuntimeException(e);
-            }
-        }
+        Broadcaster.broadcast(r -> r.updateUserList(names));
     }
 
     /**
-     * send the latest chat histories to all users
+     * send the latest whiteboard changes to all users
+     * @param events changes in the order they were applied, encoded once
      */
-    static void updateChatHist(){
-        for (ReplyReceiver r : clients.values()){
-            try {
-                r.updateChatHist(chatHist);
-            } catch (RemoteException e) {
-                throw new RuntimeException(e);
+    static void updateBoard(WbPayload<ArrayList<WbEvent>> events){
+        Broadcaster.broadcast(r -> r.applyEvents(events));
+    }
+
+    /**
+     * send a full copy of whiteboard to all users in a single call, only used when the whole board is replaced
+     * @param snapshot consistent copy of all components, encoded once
+     */
+    static void updateSnapshot(WbPayload<WbSnapshot> snapshot){
+        Broadcaster.broadcast(r -> r.updateBoard(snapshot));
+    }
+
+    /**
+     * add a message to chat and send only this message to all users, in order of sequence numbers.
+     * The manager's view is updated under the same lock, so it also gets messages in order
+     * @param text sender name and content
+     * @param view chat shown to manager, null if there is no manager gui
+     * @return the message with its sequence number
+     */
+    static synchronized ChatMessage sendChat(String text, ChatView view){
+        ChatMessage message = chat.append(text);
+        Broadcaster.broadcast(r -> r.appendChat(message));
+        if (view != null) {
+            // latest messages dropped by showing older pages are shown again first
+            if (view.newest() > 0 && message.seq > view.newest() + 1) {
+                view.appendAll(chat.before(message.seq, ChatView.PAGE_SIZE));
             }
+            view.append(message);
         }
+        return message;
     }
 
     /**
@@ -1,5 +1,6 @@
 package org.a2.wb_manager;
 
+import org.a2.common.ChatView;
 import org.a2.common.WbShape;
 
 import javax.swing.*;
@@ -18,6 +19,7 @@ import java.awt.geom.Line2D;
 public class ServerGUI extends JFrame {
 
     ServerWB wbPanel;
+    static BoardActor actor; // its queue is shown above users
 
     // tool Panel
     public JButton btnRect;
@@ -33,13 +35,16 @@ public class ServerGUI extends JFrame {
     public JTextField jtfUsername;
     public JButton btnRemove;
     public JTextArea jtaChatHist;
+    public JButton btnEarlier;
     public JTextField jtfMessage;
     public JButton btnSend;
+    ChatView chatView;
 
     // constructor
-    public ServerGUI() {
+    public ServerGUI(BoardActor actor) {
         // create whiteboard component
-        this.wbPanel = new ServerWB();
+        this.wbPanel = new ServerWB(actor);
+        ServerGUI.actor = actor;
 
         // create file control menu for manager
         setFileMenu();
@@ -71,22 +76,22 @@ public class ServerGUI extends JFrame {
         // set visibility
         setVisible(true);
 
+        // refresh board queue and send statistics of users every second
+        new Timer(1000, e -> updateUserList()).start();
+
         // add a rectangle
         btnRect.addActionListener(e -> {
-            wbPanel.addShape(new WbShape(new Rectangle(50, 50, 50, 50)));
-            repaint();
+            wbPanel.actor.submit(b -> b.addShape(new WbShape(new Rectangle(50, 50, 50, 50))));
         });
 
         // add a circle
         btnCircle.addActionListener(e -> {
-            wbPanel.addShape(new WbShape(new Ellipse2D.Double(50, 200, 50, 50)));
-            repaint();
+            wbPanel.actor.submit(b -> b.addShape(new WbShape(new Ellipse2D.Double(50, 200, 50, 50))));
         });
 
         // add a line shape
         btnLine.addActionListener(e -> {
-            wbPanel.addShape(new WbShape(new Line2D.Double(50, 350, 50, 450)));
-            repaint();
+            wbPanel.actor.submit(b -> b.addShape(new WbShape(new Line2D.Double(50, 350, 50, 450))));
         });
 
         // swap to shape mode
@@ -118,13 +123,14 @@ public class ServerGUI extends JFrame {
             jtfUsername.setText(null);
         });
 
+        // show a page of older chat messages
+        btnEarlier.addActionListener(e -> chatView.prepend(ManageUser.chat.before(chatView.oldest(), ChatView.PAGE_SIZE)));
+
         // add a message to chat box
         btnSend.addActionListener(e -> {
             String message = jtfMessage.getText();
             if (message != null) {
-                ManageUser.chatHist.add(CreateWhiteboard.username + ": " + message);
-                updateChatHist();
-                ManageUser.updateChatHist();
+                ManageUser.sendChat(CreateWhiteboard.username + ": " + message, chatView);
             }
             jtfMessage.setText(null);
         });
@@ -360,12 +366,18 @@ public class ServerGUI extends JFrame {
         chatPart.setAlignmentX(Component.CENTER_ALIGNMENT);
         panel.add(chatPart);
 
+        btnEarlier = new JButton("earlier messages");
+        btnEarlier.setMaximumSize(new Dimension(Integer.MAX_VALUE, btnEarlier.getPreferredSize().height));
+        btnEarlier.setAlignmentX(Component.CENTER_ALIGNMENT);
+        panel.add(btnEarlier);
+
         jtaChatHist = new JTextArea(8, 20);
         jtaChatHist.setLineWrap(true);
         jtaChatHist.setWrapStyleWord(true);
         jtaChatHist.setEditable(false);
         jtaChatHist.setBackground(Color.DARK_GRAY);
         jtaChatHist.setForeground(Color.WHITE);
+        chatView = new ChatView(jtaChatHist);
 
         JScrollPane chatHistScrollPane = new JScrollPane(jtaChatHist);
         chatHistScrollPane.setAlignmentX(Component.CENTER_ALIGNMENT);
@@ -394,24 +406,29 @@ public class ServerGUI extends JFrame {
      * show the latest user list on right panel
      */
     public static void updateUserList() {
+        // no user list to show when server runs headless
+        if (jtaUserList == null) {
+            return;
+        }
         StringBuilder users = new StringBuilder();
+        // board changes not applied yet, a full queue makes users and manager wait
+        users.append(String.format("[board queue %d/%d]\n", actor.queueDepth(), BoardActor.CAPACITY));
         for (String s : ManageUser.names) {
-            users.append(s).append("\n");
+            users.append(s);
+            // show how far behind each user is, to find who slows down the session
+            ClientChannel channel = Broadcaster.channels.get(s);
+            if (channel != null) {
+                users.append(String.format("  [queue %d, %.1f ms avg, %.1f ms last]",
+                        channel.queueDepth(), channel.avgLatencyMillis(), channel.lastLatencyMillis()));
+                if (channel.droppedCount() > 0) {
+                    users.append(" resynced ").append(channel.droppedCount());
+                }
+            }
+            users.append("\n");
         }
         jtaUserList.setText(String.valueOf(users));
     }
 
-    /**
-     * show the latest chat histories on right panel
-     */
-    public void updateChatHist() {
-        StringBuilder messages = new StringBuilder();
-        for (String s : ManageUser.chatHist) {
-            messages.append(s).append("\n\n");
-        }
-        jtaChatHist.setText(String.valueOf(messages));
-    }
-
     /**
      * Show request from user and decide whether share board to that user
      * @param username client id
@@ -1,8 +1,14 @@
 package org.a2.wb_manager;
 
-import org.a2.common.ReplyReceiver;
+import org.a2.common.BoardListener;
+import org.a2.common.BoardModel;
+import org.a2.common.BoardRenderer;
+import org.a2.common.InteractionSession;
+import org.a2.common.RepaintScheduler;
+import org.a2.common.WbEvent;
 import org.a2.common.WbLine;
 import org.a2.common.WbShape;
+import org.a2.common.WbSnapshot;
 import org.a2.common.WbText;
 
 import javax.imageio.ImageIO;
@@ -12,24 +18,28 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.geom.Ellipse2D;
-import java.awt.geom.Line2D;
-import java.awt.geom.RectangularShape;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.rmi.RemoteException;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
- * This Class contains the full functions' definitions of a server whiteboard
+ * This Class contains the full functions' definitions of a server whiteboard.
+ * It is a view of the whiteboard model, all changes are submitted to the board actor.
+ * Shapes and strokes are painted from cached tiles, only those touched by a change are drawn again,
+ * and only the areas changed are repainted, once per frame.
  *
  * @author Sihang Zhang 1114039 sihangz@student.unimelb.edu.au
  */
-public class ServerWB extends JPanel implements MouseListener, MouseMotionListener {
+public class ServerWB extends JPanel implements MouseListener, MouseMotionListener, BoardListener {
 
-    // Store all components within whiteboard
-    CopyOnWriteArrayList<WbShape> shapeList = new CopyOnWriteArrayList<>();
-    CopyOnWriteArrayList<WbLine> lineList = new CopyOnWriteArrayList<>();
-    CopyOnWriteArrayList<WbText> textList = new CopyOnWriteArrayList<>();
+    // Content of whiteboard, and its only writer
+    final BoardModel board;
+    final BoardActor actor;
+    final BoardRenderer renderer;
+    final RepaintScheduler scheduler = new RepaintScheduler(this);
 
     // Current mode
     Boolean drawing = false;
@@ -40,22 +50,42 @@ public class ServerWB extends JPanel implements MouseListener, MouseMotionListen
     // other features
     Ellipse2D eraser;
     int eraserSize;
-    int startX, startY; // mouse start position
     JPopupMenu shapePopup;
     JPopupMenu textPopup;
     Color drawingColor = Color.BLACK; // initial free draw line color
+    Stroke stroke; // free draw stroke being drawn by manager
+
+    // manager's own selection and drag state, separated from every user's
+    final InteractionSession session;
 
     // current manager's target
     WbShape target;
     WbText textTarget;
 
+    /**
+     * A free draw stroke of manager. Its id is known once the board thread has started it,
+     * points drawn before that wait here. Only used by the event dispatch thread.
+     */
+    private static final class Stroke {
+        long id; // 0 until known
+        final ArrayList<Point> waiting = new ArrayList<>();
+        boolean ended;
+    }
+
     // constructor
-    public ServerWB() {
+    public ServerWB(BoardActor actor) {
+        this.actor = actor;
+        this.board = actor.board;
+        this.session = new InteractionSession(board, actor);
+        this.renderer = new BoardRenderer(board);
         shapePopup();
         textPopup();
 
         addMouseListener(this);
         addMouseMotionListener(this);
+
+        // repaint areas changed by whiteboard content changes
+        board.addListener(this);
     }
 
     @Override
@@ -63,29 +93,32 @@ public class ServerWB extends JPanel implements MouseListener, MouseMotionListen
         super.paintComponent(g);
         Graphics2D g2d = (Graphics2D) g;
 
-        for (WbShape s : shapeList) {
-            s.drawShape(g2d);
-        }
-
-        for (WbLine l : lineList) {
-            l.drawLine(g2d);
-        }
+        // the whole whiteboard when painted into an image
+        Rectangle area = g2d.getClipBounds();
+        renderer.paint(g2d, area == null ? new Rectangle(getSize()) : area, Collections.emptySet());
 
-        for (WbText t : textList){
+        for (WbText t : board.texts()){
             t.drawText(g2d);
         }
 
-        for (ReplyReceiver r : ManageUser.clients.values()) {
-            try {
-                r.updateShape(shapeList);
-                r.updateLine(lineList);
-                r.updateText(textList);
-            } catch (RemoteException ignored) {
-                ManageUser.remove(r);
-            }
+        // present control points of the shape selected by manager
+        WbShape selected = session.selectedShape();
+        if (selected != null) {
+            selected.drawControlPoints(g2d);
         }
     }
 
+    @Override
+    public void boardChanged(ArrayList<WbEvent> events) {
+        scheduler.add(renderer.invalidate(events));
+    }
+
+    @Override
+    public void boardReplaced() {
+        renderer.invalidateAll();
+        scheduler.addAll();
+    }
+
     /**
      *  Popup options when right-click on a shape
      */
@@ -129,10 +162,7 @@ public class ServerWB extends JPanel implements MouseListener, MouseMotionListen
      * Creat a new whiteboard by clear all components in lists
      */
     void newBoard(){
-        shapeList = new CopyOnWriteArrayList<>();
-        lineList = new CopyOnWriteArrayList<>();
-        textList = new CopyOnWriteArrayList<>();
-        repaint();
+        actor.submit(BoardModel::clear);
     }
 
     /**
@@ -140,10 +170,8 @@ public class ServerWB extends JPanel implements MouseListener, MouseMotionListen
      * @param filepath the destination of saved file
      */
     void saveBoard(String filepath){
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filepath))) {
-            oos.writeObject(shapeList);
-            oos.writeObject(lineList);
-            oos.writeObject(textList);
+        try {
+            BoardFile.write(board.snapshot(), filepath);
             JOptionPane.showMessageDialog(this,
                     "Successfully save whiteboard objects ", "Operation Done", JOptionPane.INFORMATION_MESSAGE);
         } catch (Exception e){
@@ -157,11 +185,12 @@ public class ServerWB extends JPanel implements MouseListener, MouseMotionListen
      * @param filepath the source file location
      */
     void openBoard(String filepath){
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filepath))) {
-            shapeList = (CopyOnWriteArrayList<WbShape>) ois.readObject();
-            lineList = (CopyOnWriteArrayList<WbLine>) ois.readObject();
-            textList = (CopyOnWriteArrayList<WbText>) ois.readObject();
-            repaint();
+        try {
+            WbSnapshot saved = BoardFile.read(filepath);
+            actor.submit(b -> b.replace(saved.shapes, saved.lines, saved.texts));
+        } catch (InvalidObjectException e){
+            JOptionPane.showMessageDialog(this,
+                    e.getMessage() + ", try other files :) ", "Error", JOptionPane.INFORMATION_MESSAGE);
         } catch (Exception e){
             JOptionPane.showMessageDialog(this,
                     "Cannot read this file as whiteboard, try other files :) ", "Error", JOptionPane.INFORMATION_MESSAGE);
@@ -195,73 +224,72 @@ public class ServerWB extends JPanel implements MouseListener, MouseMotionListen
         }
     }
 
-    /**
-     * Add a shape to whiteboard
-     * @param shape shape
-     */
-    public void addShape(WbShape shape) {
-        shapeList.add(shape);
-    }
-
     /**
      * change the color a specified shape
      */
     public void addShapeColor() {
-        target.shapeColor = JColorChooser.showDialog
+        Color color = JColorChooser.showDialog
                 (this, "Set the border color:", Color.black);
-        repaint();
+        long id = target.id;
+        actor.submit(b -> b.updateShape(id, s -> s.shapeColor = color));
     }
 
     /**
      * change the fill color of specified shape
      */
     public void addFillColor() {
-        target.fillColor = JColorChooser.showDialog
+        Color color = JColorChooser.showDialog
                 (this, "Fill the shape with color:", Color.black);
-        repaint();
+        long id = target.id;
+        actor.submit(b -> b.updateShape(id, s -> s.fillColor = color));
     }
 
     /**
      * change the color of text within a shape
      */
     public void addTextColor() {
-        target.textColor = JColorChooser.showDialog
+        Color color = JColorChooser.showDialog
                 (this, "Set the text color:", Color.black);
-        repaint();
+        long id = target.id;
+        actor.submit(b -> b.updateShape(id, s -> s.textColor = color));
     }
 
     /**
      * Delete a shape from whiteboard
      */
     public void deleteShape() {
-        shapeList.remove(target);
-        repaint();
+        long id = target.id;
+        actor.submit(b -> b.removeShape(id));
     }
 
     /**
      * change the content of text within a shape
      */
     public void setTextContent(){
-        textTarget.text = JOptionPane.showInputDialog(
+        String text = JOptionPane.showInputDialog(
                 this, "Enter text:", textTarget.text);
-        repaint();
+        if (text != null) {
+            long id = textTarget.id;
+            actor.submit(b -> b.updateText(id, t -> t.text = text));
+        }
     }
 
     /**
      * change the color of text within a shape
      */
     public void setTextColor(){
-        textTarget.color = JColorChooser.showDialog
+        Color color = JColorChooser.showDialog
                 (this, "Set the text color:", Color.black);
-        repaint();
+        long id = textTarget.id;
+        actor.submit(b -> b.updateText(id, t -> t.color = color));
     }
 
     /**
      * delete a whiteboard text object
      */
     public void deleteTextItem() {
-        textList.remove(textTarget);
-        repaint();
+        long id = textTarget.id;
+        actor.submit(b -> b.removeText(id));
     }
 
 
@@ -275,8 +303,8 @@ public class ServerWB extends JPanel implements MouseListener, MouseMotionListen
                 String text = JOptionPane.showInputDialog(
                         this, "Enter text for rectangle:", target.text);
                 if (text != null) {
-                    target.text = text;
-                    repaint();
+                    long id = target.id;
+                    actor.submit(b -> b.updateShape(id, s -> s.text = text));
                 }
 
             // right-click a shape to show popup options
@@ -297,8 +325,8 @@ public class ServerWB extends JPanel implements MouseListener, MouseMotionListen
                 if (text == null){
                     return;
                 }
-                textList.add(new WbText(text,e.getX(),e.getY(),Color.BLACK));
-                repaint();
+                WbText newText = new WbText(text,e.getX(),e.getY(),Color.BLACK);
+                actor.submit(b -> b.addText(newText));
             }
         }
     }
@@ -311,55 +339,32 @@ public class ServerWB extends JPanel implements MouseListener, MouseMotionListen
 
         // Shape Mode
         if (!drawing && !erasing && ! texting) {
-            if (target != null) {
-                // check if any control point is selected
-                target.selectedControl = -1;
-                for (int i = 0; i < target.controlPoints.size(); i++) {
-                    if (target.controlPoints.get(i) != null && target.controlPoints.get(i).contains(x, y)) {
-                        target.selectedControl = i;
-                        dragging = true;
-                        break;
-                    }
-                }
-            }
-
-            // check if any shape is selected
-            if (!dragging) {
-                target = null;
-                for (WbShape s : shapeList) {
-                    if (s.shape instanceof RectangularShape) {
-                        s.selected = s.shape.contains(x, y);
-                    } else if (s.shape instanceof Line2D) {
-                        s.selected = s.isClickNearLine((Line2D) s.shape, x, y);
-                    }
-                    startX = x;
-                    startY = y;
-                    if (s.selected) {
-                        target = s;
-                        dragging = true;
-                    }
-                }
-            }
+            session.press("shape", x, y);
+            target = session.selectedShape();
             repaint();
 
         // Draw Mode
         } else if (drawing) {
-            startX = x;
-            startY = y;
+            // start stroke without waiting for board thread, so a busy board never freezes gui
+            Color color = drawingColor;
+            Stroke s = new Stroke();
+            stroke = s;
+            actor.submit(b -> b.beginStroke(color, 0, x, y), id -> {
+                s.id = id;
+                if (!s.waiting.isEmpty()) {
+                    appendStroke(s, s.waiting);
+                    s.waiting.clear();
+                }
+                if (s.ended) {
+                    actor.submit(b -> b.endStroke(id));
+                }
+            });
             dragging = true;
 
         // Text Mode
         } else if (texting){
-            textTarget = null;
-            // check if any text object is selected
-            for (WbText t : textList) {
-                if (t.contain(x,y)){
-                    textTarget = t;
-                    dragging = true;
-                }
-                startX = x;
-                startY = y;
-            }
+            session.press("text", x, y);
+            textTarget = session.selectedText();
 
         // Erase Mode
         } else {
@@ -369,9 +374,34 @@ public class ServerWB extends JPanel implements MouseListener, MouseMotionListen
 
     @Override
     public void mouseReleased(MouseEvent e) {
+        if (drawing && dragging) {
+            Stroke s = stroke;
+            if (s.id == 0) {
+                s.ended = true;
+            } else {
+                actor.submit(b -> b.endStroke(s.id));
+            }
+        }
+        session.release();
         dragging = false;
     }
 
+    /**
+     * Extend a stroke of manager whose id is known
+     * @param s the stroke
+     * @param points new points
+     */
+    private void appendStroke(Stroke s, List<Point> points) {
+        long id = s.id;
+        int[] xs = new int[points.size()];
+        int[] ys = new int[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            xs[i] = points.get(i).x;
+            ys[i] = points.get(i).y;
+        }
+        actor.submit(b -> b.appendStroke(id, xs, ys));
+    }
+
     @Override
     public void mouseEntered(MouseEvent e) {
 
@@ -386,56 +416,31 @@ public class ServerWB extends JPanel implements MouseListener, MouseMotionListen
     public void mouseDragged(MouseEvent e) {
         // Shape Mode logic
         if (!drawing && !erasing && ! texting) {
-            if (dragging) {
-                int x = e.getX();
-                int y = e.getY();
-
-                // drag control point to resize shapes
-                if (target != null && target.selectedControl >= 0) {
-                    target.adjustShape(x, y);
-                    repaint();
-
-                // check if any shape is selected to be moved
-                } else {
-                    for (WbShape s : shapeList) {
-                        if (s.selected) {
-                            int dx = x - startX;
-                            int dy = y - startY;
-                            s.moveBy(dx, dy);
-                            startX = x;
-                            startY = y;
-                            repaint();
-                        }
-                    }
-                }
+            // move selected shape, or resize it when dragging a control point
+            try {
+                session.drag("shape", e.getX(), e.getY());
+            } catch (RemoteException ignored) {
+            // manager edits local whiteboard directly, never happens
             }
 
         // Draw Mode
         } else if (drawing){
-            // continuously add free draw line to whiteboard
+            // continuously extend the free draw stroke
             if (dragging) {
-                int x = e.getX();
-                int y = e.getY();
-                lineList.add(new WbLine(new Point(startX, startY), new Point(x, y),
-                        drawingColor, 0));
-                // update x,y value for next draw
-                startX = x;
-                startY = y;
-                repaint();
+                if (stroke.id == 0) {
+                    stroke.waiting.add(e.getPoint());
+                } else {
+                    appendStroke(stroke, Collections.singletonList(e.getPoint()));
+                }
             }
 
         // text mode
         }else if (texting){
-            // check if any text is selected to be moved
-            if (dragging) {
-                int x = e.getX();
-                int y = e.getY();
-                int dx = x - startX;
-                int dy = y - startY;
-                textTarget.moveBy(dx,dy);
-                startX = x;
-                startY = y;
-                repaint();
+            // move selected text
+            try {
+                session.drag("text", e.getX(), e.getY());
+            } catch (RemoteException ignored) {
+            // manager edits local whiteboard directly, never happens
             }
 
         // Eraser Mode
@@ -447,8 +452,8 @@ public class ServerWB extends JPanel implements MouseListener, MouseMotionListen
                         e.getY() - (double) eraserSize / 2,
                         eraserSize,
                         eraserSize);
-                lineList.removeIf(l -> l.withinEraser(eraser));
-                repaint();
+                Ellipse2D area = eraser;
+                actor.submit(b -> b.eraseStrokes(area));
             }
         }
     }
@@ -0,0 +1,55 @@
+package org.a2.common;
+
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+
+/**
+ * Checks of finding strokes by area through the spatial index of whiteboard model.
+ * Runs without any library: each check prints its name, and the first one that does not hold
+ * stops the run with an AssertionError.
+ */
+public class BoardModelCheck {
+
+    public static void main(String[] args) {
+        joiningSegmentIsFoundByArea();
+        eraseFindsPointsAppendedWithinEarlierBounds();
+    }
+
+    static void joiningSegmentIsFoundByArea() {
+        BoardModel board = new BoardModel();
+        long id = board.beginStroke(Color.BLACK, 0, 0, 0);
+        board.appendStroke(id, new int[]{300}, new int[]{300});
+
+        // only the segment joining the two points crosses this area
+        check(board.linesIn(new Rectangle(70, 70, 10, 10)).size() == 1, "joining segment is found by area");
+    }
+
+    static void eraseFindsPointsAppendedWithinEarlierBounds() {
+        BoardModel board = new BoardModel();
+        long id = board.beginStroke(Color.BLACK, 0, 0, 0);
+        board.appendStroke(id, new int[]{300}, new int[]{300});
+        // these points lie within the bounds the stroke already had
+        board.appendStroke(id, new int[]{150, 150}, new int[]{150, 200});
+
+        Ellipse2D eraser = new Ellipse2D.Double(140, 140, 20, 20);
+        board.eraseStrokes(eraser);
+
+        boolean erased = true;
+        for (WbLine line : board.lines()) {
+            erased &= !line.withinEraser(eraser);
+        }
+        check(erased && board.lines().iterator().hasNext(), "erase finds points appended within earlier bounds");
+    }
+
+    /**
+     * Stop the run if a check does not hold
+     * @param holds result of the check
+     * @param name what is checked
+     */
+    static void check(boolean holds, String name) {
+        if (!holds) {
+            throw new AssertionError("Check failed: " + name);
+        }
+        System.out.println("ok " + name);
+    }
+}
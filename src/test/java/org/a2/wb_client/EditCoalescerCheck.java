@@ -0,0 +1,147 @@
+package org.a2.wb_client;
+
+import org.a2.common.BoardListener;
+import org.a2.common.BoardModel;
+import org.a2.common.RemoteOperations;
+import org.a2.common.WbEvent;
+import org.a2.common.WbLine;
+import org.a2.common.WbPayload;
+import org.a2.common.WbShape;
+
+import java.awt.*;
+import java.lang.reflect.Proxy;
+import java.rmi.UnmarshalException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Checks that edits made before server answers are predicted at once and confirmed once server applied them.
+ * Server is a model in the same process, its events reach the replica while the call that caused them
+ * is still running, as they may over RMI.
+ * Runs without any library: each check prints its name, and the first one that does not hold
+ * stops the run with an AssertionError.
+ */
+public class EditCoalescerCheck {
+
+    public static void main(String[] args) throws InterruptedException {
+        // one tick per second, so checks can look at edits before they are sent
+        System.setProperty("wb.sendHz", "1");
+        strokeIsDrawnBeforeServerCreatesIt();
+        editWithoutEventIsConfirmed();
+    }
+
+    /**
+     * A server, the user's replica following it, and the edits the user sends to it
+     */
+    static class Session {
+        final BoardModel server = new BoardModel();
+        final BoardModel replica = new BoardModel();
+        final AtomicInteger calls = new AtomicInteger();
+        final EditCoalescer edits;
+
+        // constructor
+        Session() {
+            RemoteOperations wbService = (RemoteOperations) Proxy.newProxyInstance(
+                    RemoteOperations.class.getClassLoader(), new Class<?>[]{RemoteOperations.class},
+                    (proxy, method, a) -> {
+                        calls.incrementAndGet();
+                        String origin = (String) a[0];
+                        long seq = (long) a[1];
+                        switch (method.getName()) {
+                            case "beginStroke" -> {
+                                long[] id = new long[1];
+                                server.edit(origin, seq, () -> id[0] = server.beginStroke(
+                                        (Color) a[2], (int) a[3], (int) a[4], (int) a[5]));
+                                return id[0];
+                            }
+                            case "appendStroke" -> server.edit(origin, seq,
+                                    () -> server.appendStroke((long) a[2], (int[]) a[3], (int[]) a[4]));
+                            case "endStroke" -> server.edit(origin, seq, () -> server.endStroke((long) a[2]));
+                            case "moveObject" -> server.edit(origin, seq,
+                                    () -> server.moveObject((long) a[2], (int) a[3], (int) a[4]));
+                            default -> throw new UnsupportedOperationException(method.getName());
+                        }
+                        return null;
+                    });
+            edits = new EditCoalescer(wbService, replica, "user");
+            server.addListener(new BoardListener() {
+                @Override
+                public void boardChanged(ArrayList<WbEvent> events) {
+                    // sent as bytes, like server sends them
+                    try {
+                        ArrayList<WbEvent> received = WbPayload.encode(events, server.version()).decode();
+                        replica.apply(received);
+                        edits.confirm(received);
+                    } catch (UnmarshalException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+
+                @Override
+                public void boardReplaced() {
+                }
+
+                @Override
+                public void editApplied(String origin, long seq) {
+                    edits.confirm(seq);
+                }
+            });
+        }
+    }
+
+    static void strokeIsDrawnBeforeServerCreatesIt() throws InterruptedException {
+        Session session = new Session();
+        long id = session.edits.beginStroke(Color.RED, 2, 10, 10);
+        session.edits.appendStroke(id, 20, 20);
+        check(session.calls.get() == 0 && id < 0 && session.edits.predicted(id) instanceof WbLine l
+                && l.pointCount() == 2, "new stroke is drawn before server is called");
+
+        // points added after server created the stroke still use the temporary id
+        await(() -> session.replica.getLine(1) != null && session.edits.predicted(id) == null);
+        session.edits.appendStroke(id, 30, 15);
+        session.edits.endStroke(id);
+        await(() -> session.edits.predictedIds().isEmpty());
+        WbLine line = session.server.getLine(1);
+        check(line != null && line.pointCount() == 3 && session.replica.getLine(1).pointCount() == 3,
+                "all points reach the stroke server created");
+    }
+
+    static void editWithoutEventIsConfirmed() throws InterruptedException {
+        Session session = new Session();
+        WbShape shape = session.server.addShape(new WbShape(new Rectangle(10, 10, 50, 50)));
+        session.edits.moveObject(shape.id, 5, 5);
+        check(session.edits.predicted(shape.id) != null, "moved shape is predicted");
+
+        // removed before the move reaches server, so the move changes nothing
+        session.server.removeShape(shape.id);
+        await(() -> session.edits.unconfirmedCount() == 0);
+        check(session.edits.predictedIds().isEmpty(), "move of a removed shape is confirmed");
+    }
+
+    /**
+     * Wait for edits to be sent and applied
+     * @param done true once they are
+     */
+    static void await(BooleanSupplier done) throws InterruptedException {
+        long until = System.currentTimeMillis() + 5000;
+        while (!done.getAsBoolean()) {
+            if (System.currentTimeMillis() > until) {
+                throw new AssertionError("Check failed: edits were not applied in time");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Stop the run if a check does not hold
+     * @param holds result of the check
+     * @param name what is checked
+     */
+    static void check(boolean holds, String name) {
+        if (!holds) {
+            throw new AssertionError("Check failed: " + name);
+        }
+        System.out.println("ok " + name);
+    }
+}
@@ -0,0 +1,167 @@
+package org.a2.wb_manager;
+
+import org.a2.common.BoardListener;
+import org.a2.common.BoardModel;
+import org.a2.common.WbEvent;
+import org.a2.common.WbPayload;
+import org.a2.common.WbShape;
+import org.a2.common.WbSnapshot;
+import org.a2.common.WbText;
+
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.rmi.UnmarshalException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Checks that replicas caught up from the event log of server end up equal to server's whiteboard.
+ * Runs without any library: each check prints its name, and the first one that does not hold
+ * stops the run with an AssertionError.
+ */
+public class EventLogCheck {
+
+    public static void main(String[] args) throws IOException {
+        replayFromStartEqualsServer();
+        replayFromSnapshotEqualsServer();
+        replacedBoardNeedsSnapshot();
+    }
+
+    /**
+     * A server model whose changes are recorded the way ManageGUI records them
+     */
+    static BoardModel server(EventLog log) {
+        BoardModel board = new BoardModel();
+        board.addListener(new BoardListener() {
+            @Override
+            public void boardChanged(ArrayList<WbEvent> events) {
+                log.record(events, board.version());
+            }
+
+            @Override
+            public void boardReplaced() {
+                log.clear(board.version());
+            }
+        });
+        return board;
+    }
+
+    /**
+     * Changes of every kind, with strokes, shapes and texts changing again after their first event
+     */
+    static void edit(BoardModel board, int step) {
+        int o = step * 40;
+        WbShape shape = board.addShape(new WbShape(new Rectangle(o, o, 50, 50)));
+        long stroke = board.beginStroke(Color.RED, 2, o, o);
+        board.appendStroke(stroke, new int[]{o + 10, o + 20}, new int[]{o + 10, o + 20});
+        board.edit("user", step, () -> board.appendStroke(stroke, new int[]{o + 30}, new int[]{o + 5}));
+        board.moveObject(shape.id, 5, 7);
+        board.resizeObject(shape.id, 7, o + 120, o + 90);
+        board.updateShape(shape.id, s -> s.text = "shape " + step);
+        WbText text = board.addText(new WbText("text", o, o + 60, Color.BLUE));
+        board.updateText(text.id, t -> t.text = "changed " + step);
+        board.moveObject(text.id, 3, 3);
+        // splits the stroke, its rest keeps the id
+        board.eraseStrokes(new Ellipse2D.Double(o + 5, o + 5, 10, 10));
+        long dot = board.beginStroke(Color.BLACK, 1, o, o + 200);
+        board.endStroke(dot);
+        board.endStroke(stroke);
+        // a stroke the eraser never reaches, and a shape of the first step changing again
+        long kept = board.beginStroke(Color.GREEN, 3, o, o + 300);
+        board.appendStroke(kept, new int[]{o + 50}, new int[]{o + 350});
+        board.appendStroke(kept, new int[]{o + 90, o + 60}, new int[]{o + 310, o + 380});
+        board.endStroke(kept);
+        board.moveObject(board.shapes().get(0).id, 1, 2);
+    }
+
+    static void replayFromStartEqualsServer() throws IOException {
+        EventLog log = new EventLog();
+        BoardModel server = server(log);
+        // server's whiteboard after each step, encoded at once as later steps change its components
+        ArrayList<WbPayload<WbSnapshot>> states = new ArrayList<>();
+        for (int step = 0; step < 5; step++) {
+            edit(server, step);
+            states.add(WbPayload.encode(server.snapshot(), server.version()));
+        }
+
+        // replay step by step, the replica must equal server as it was at every step
+        ArrayList<WbEvent> events = decode(log.since(0));
+        BoardModel replica = new BoardModel();
+        boolean same = true;
+        for (WbPayload<WbSnapshot> state : states) {
+            ArrayList<WbEvent> upTo = new ArrayList<>();
+            for (WbEvent e : events) {
+                if (e.version <= state.version) {
+                    upTo.add(e);
+                }
+            }
+            same &= replica.apply(upTo) && Arrays.equals(encode(state.decode()), encode(replica.snapshot()));
+        }
+        check(same, "replica replayed from start equals server at every step");
+    }
+
+    static void replayFromSnapshotEqualsServer() throws IOException {
+        EventLog log = new EventLog();
+        BoardModel server = server(log);
+        edit(server, 0);
+        WbPayload<WbSnapshot> snapshot = WbPayload.encode(server.snapshot(), server.version());
+        edit(server, 1);
+        edit(server, 2);
+
+        BoardModel replica = new BoardModel();
+        replica.load(snapshot.decode());
+        check(replica.apply(decode(log.since(snapshot.version))), "replica applies events after its snapshot");
+        check(same(server, replica), "replica replayed from snapshot equals server");
+    }
+
+    static void replacedBoardNeedsSnapshot() {
+        EventLog log = new EventLog();
+        BoardModel server = server(log);
+        edit(server, 0);
+        long before = server.version();
+        server.clear();
+        check(log.since(before) == null, "events before a replaced board are not replayed");
+        check(log.since(server.version()).isEmpty(), "nothing is missed right after a replaced board");
+    }
+
+    /**
+     * Decode batches of events into one list
+     */
+    static ArrayList<WbEvent> decode(ArrayList<WbPayload<ArrayList<WbEvent>>> batches) throws UnmarshalException {
+        ArrayList<WbEvent> events = new ArrayList<>();
+        for (WbPayload<ArrayList<WbEvent>> batch : batches) {
+            events.addAll(batch.decode());
+        }
+        return events;
+    }
+
+    /**
+     * @return true if two whiteboards have the same version and components, ids, points and features
+     */
+    static boolean same(BoardModel a, BoardModel b) throws IOException {
+        return Arrays.equals(encode(a.snapshot()), encode(b.snapshot()));
+    }
+
+    static byte[] encode(WbSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(snapshot);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Stop the run if a check does not hold
+     * @param holds result of the check
+     * @param name what is checked
+     */
+    static void check(boolean holds, String name) {
+        if (!holds) {
+            throw new AssertionError("Check failed: " + name);
+        }
+        System.out.println("ok " + name);
+    }
+}